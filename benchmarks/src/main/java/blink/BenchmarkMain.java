@@ -0,0 +1,25 @@
+package blink;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the JMH benchmarks like org.openjdk.jmh.Main, but writes results as JSON to
+// jmh-result.json unless -rf/-rff say otherwise, so runs can be compared across releases.
+//
+//   mvn install                      (in the project root)
+//   mvn package                      (in benchmarks/)
+//   java -jar target/benchmarks.jar [jmh options]
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(cli)
+                .resultFormat(cli.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(cli.getResult().orElse("jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
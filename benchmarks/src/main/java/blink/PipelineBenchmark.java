@@ -0,0 +1,121 @@
+package blink;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Measures each stage of the pipeline on its own. Every stage starts from the output of the
+// previous one, prepared once in setup, so only the stage under test is timed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"fib", "loops", "strings", "oo", "arrays", "closures"})
+    public String program;
+
+    private final Blink blink = new Blink();
+    private String source;
+    private TokenStream tokens;
+    private List<Stmt> statements;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        source = readProgram(program);
+
+        Tokenizer tokenizer = new Tokenizer(blink, source);
+        tokenizer.scanTokens();
+        tokens = tokenizer.getTokens();
+        statements = new Optimizer().optimize(new Parser(blink, tokens).parse());
+
+        // Programs print their results; keep that out of the benchmark output.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public TokenStream tokenize() {
+        Tokenizer tokenizer = new Tokenizer(blink, source);
+        tokenizer.scanTokens();
+        return tokenizer.getTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(blink, tokens).parse();
+    }
+
+    // As a module is parsed, top-level function bodies only skimmed.
+    @Benchmark
+    public List<Stmt> parseLazily() {
+        return new Parser(blink, tokens, true).parse();
+    }
+
+    // The Optimizer rewrites function bodies in place, so it is given a tree straight from the
+    // parser each invocation rather than the optimized one the other benchmarks share.
+    @State(Scope.Thread)
+    public static class ParsedTree {
+        List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark benchmark) {
+            statements = new Parser(benchmark.blink, benchmark.tokens).parse();
+        }
+    }
+
+    @Benchmark
+    public List<Stmt> optimize(ParsedTree tree) {
+        return new Optimizer().optimize(tree.statements);
+    }
+
+    @Benchmark
+    public Resolver resolve() {
+        Resolver resolver = new Resolver(blink, new Resolution());
+        resolver.resolve(statements);
+        return resolver;
+    }
+
+    // A run starts from a tree no interpreter has used yet. Reusing one would leave its inline
+    // caches holding shapes from earlier invocations, so each invocation gets its own.
+    @State(Scope.Thread)
+    public static class FreshTree {
+        List<Stmt> statements;
+        Resolution resolution;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark benchmark) {
+            statements = new Optimizer().optimize(new Parser(benchmark.blink, benchmark.tokens).parse());
+            resolution = new Resolution();
+            new Resolver(benchmark.blink, resolution).resolve(statements);
+        }
+    }
+
+    @Benchmark
+    public Interpreter interpret(FreshTree tree) {
+        // A fresh interpreter per run, since top level lets can't be redefined.
+        Interpreter interpreter = new Interpreter(blink);
+        interpreter.adopt(tree.resolution);
+        interpreter.interpret(tree.statements);
+        return interpreter;
+    }
+
+    private static String readProgram(String name) throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/corpus/" + name + ".blink")) {
+            if (in == null) {
+                throw new FileNotFoundException("corpus/" + name + ".blink");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
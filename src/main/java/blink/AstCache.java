@@ -0,0 +1,72 @@
+package blink;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+// Resolved syntax trees stored next to their scripts, in a __blinkcache__ directory, under the
+// SHA-256 of the source. An unchanged script is loaded from there instead of going through
+// the tokenizer, parser and resolver again. Trees of modules, whose function bodies may still
+// be unparsed, are kept apart from those of scripts.
+class AstCache {
+    private static final String DIRECTORY = "__blinkcache__";
+
+    // Both take the hash of the source, which the caller has already computed to validate it.
+    static List<Stmt> load(Path script, String hash, Resolution resolution, boolean lazy) {
+        Path file = cacheFile(script, hash, lazy);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return new AstReader(in, Files.size(file), resolution).read();
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or stale entries are rebuilt from source.
+            return null;
+        }
+    }
+
+    static void store(Path script, String hash, List<Stmt> statements, Resolution resolution,
+                      boolean lazy) {
+        Path file = cacheFile(script, hash, lazy);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            // Write to a temporary file first so concurrent runs never see a partial entry.
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                new AstWriter(out, resolution).write(statements);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The cache is only an optimization, a read-only directory just means no caching.
+        }
+    }
+
+    private static Path cacheFile(Path script, String hash, boolean lazy) {
+        Path directory = script.toAbsolutePath().getParent();
+        if (directory == null) {
+            return null;
+        }
+        return directory.resolve(DIRECTORY).resolve(hash + (lazy ? ".lazy.bast" : ".bast"));
+    }
+
+    static String hash(CharSequence source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)));
+            byte[] bytes = digest.digest();
+            StringBuilder hex = new StringBuilder();
+            for (byte b : bytes) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package blink;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+// Reads syntax trees written by AstWriter, recording their saved resolution as it goes.
+class AstReader {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final Counting counting;
+    private final DataInputStream in;
+    private final long length;
+    private final Resolution resolution;
+    private final List<String> strings = new ArrayList<>();
+
+    // Counts the bytes read so far, to know how much of the file is left.
+    private static class Counting extends FilterInputStream {
+        long count = 0;
+
+        Counting(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    // length is the size of the data, which bounds every count and length read from it.
+    AstReader(InputStream in, long length, Resolution resolution) {
+        this.counting = new Counting(in);
+        this.in = new DataInputStream(counting);
+        this.length = length;
+        this.resolution = resolution;
+    }
+
+    // Reads a count of elements that take at least size bytes each. A corrupt entry could hold
+    // any number, so one that cannot fit in the rest of the data is refused before anything is
+    // allocated for it.
+    private int readCount(int size) throws IOException {
+        return checked(in.readInt(), size);
+    }
+
+    private int checked(int count, int size) throws IOException {
+        if (count < 0 || count > (length - counting.count) / size) {
+            throw new IOException("Corrupt AST cache.");
+        }
+        return count;
+    }
+
+    // Returns null if the data was written by a different format version.
+    List<Stmt> read() throws IOException {
+        if (in.readInt() != AstWriter.MAGIC || in.readInt() != AstWriter.VERSION) {
+            return null;
+        }
+        List<Stmt> statements = readStmts();
+        return scoped(statements);
+    }
+
+    private ArrayList<Stmt> readStmts() throws IOException {
+        int size = in.readInt();
+        if (size == -1) {
+            return null;
+        }
+        ArrayList<Stmt> stmts = new ArrayList<>(checked(size, 1));
+        for (int i = 0; i < size; i++) {
+            stmts.add(readStmt());
+        }
+        return stmts;
+    }
+
+    private List<Expr> readExprs() throws IOException {
+        int size = in.readInt();
+        if (size == -1) {
+            return null;
+        }
+        List<Expr> exprs = new ArrayList<>(checked(size, 1));
+        for (int i = 0; i < size; i++) {
+            exprs.add(readExpr());
+        }
+        return exprs;
+    }
+
+    private List<Token> readTokens() throws IOException {
+        int size = readCount(1);
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(readToken());
+        }
+        return tokens;
+    }
+
+    private Token readToken() throws IOException {
+        int type = in.readByte();
+        if (type == AstWriter.NULL) {
+            return null;
+        }
+        String lexeme = readString();
+        Object literal = readValue();
+        int line = in.readInt();
+        int col = in.readInt();
+        return new Token(tokenTypes[type - 1], lexeme, literal, line, col);
+    }
+
+    private Object readValue() throws IOException {
+        switch (in.readByte()) {
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.BOOLEAN:
+                return in.readByte() != 0;
+            case AstWriter.NUMBER:
+                return in.readDouble();
+            case AstWriter.STRING:
+                return readString();
+        }
+        throw new IOException("Corrupt AST cache.");
+    }
+
+    private String readString() throws IOException {
+        int index = in.readInt();
+        if (index == -1) {
+            return null;
+        }
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        if (index != strings.size()) {
+            throw new IOException("Corrupt AST cache.");
+        }
+        byte[] bytes = new byte[readCount(1)];
+        in.readFully(bytes);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(string);
+        return string;
+    }
+
+    private <T extends Expr.Local> T resolved(T expr) throws IOException {
+        expr.access = in.readInt();
+        if (expr.access != Expr.GLOBAL) {
+            expr.slot = in.readInt();
+        }
+        return expr;
+    }
+
+    private <T> T declared(T declaration) throws IOException {
+        int slot = in.readInt();
+        if (slot != -1) {
+            resolution.declare(declaration, slot);
+            if (in.readByte() != 0) {
+                resolution.box(declaration);
+            }
+        }
+        return declaration;
+    }
+
+    private <T> T scoped(T node) throws IOException {
+        resolution.scope(node, in.readInt());
+        return node;
+    }
+
+    private <T> T captures(T function) throws IOException {
+        int[] upvalues = readInts();
+        resolution.function(function, upvalues, readInts());
+        return function;
+    }
+
+    private LazyBody readLazy() throws IOException {
+        if (in.readByte() == AstWriter.NULL) {
+            return null;
+        }
+        FunctionType type = FunctionType.values()[in.readByte()];
+        ClassType classType = ClassType.values()[in.readByte()];
+        int superSlot = in.readInt();
+        String text = readString();
+        int line = in.readInt();
+        LazyBody lazy = new LazyBody(text, line, in.readInt());
+        lazy.type = type;
+        lazy.classType = classType;
+        lazy.superSlot = superSlot;
+        return lazy;
+    }
+
+    private int[] readInts() throws IOException {
+        int[] values = new int[readCount(4)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private Expr readExpr() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.BINARY: {
+                Expr left = readExpr();
+                Token op = readToken();
+                return new Expr.Binary(left, op, readExpr());
+            }
+            case AstWriter.UNARY: {
+                Token op = readToken();
+                return new Expr.Unary(op, readExpr());
+            }
+            case AstWriter.LITERAL:
+                return new Expr.Literal(readValue());
+            case AstWriter.GROUPING:
+                return new Expr.Grouping(readExpr());
+            case AstWriter.VARIABLE:
+                return resolved(new Expr.Variable(readToken()));
+            case AstWriter.ASSIGN: {
+                Token name = readToken();
+                return resolved(new Expr.Assign(name, readExpr()));
+            }
+            case AstWriter.LOGICAL: {
+                Expr left = readExpr();
+                Token op = readToken();
+                return new Expr.Logical(left, op, readExpr());
+            }
+            case AstWriter.CONDITIONAL: {
+                Expr cond = readExpr();
+                Token question = readToken();
+                Expr thenBranch = readExpr();
+                return new Expr.Conditional(cond, question, thenBranch, readExpr());
+            }
+            case AstWriter.CALL: {
+                Expr callee = readExpr();
+                Token paren = readToken();
+                return new Expr.Call(callee, paren, readExprs());
+            }
+            case AstWriter.GET: {
+                Token name = readToken();
+                return new Expr.Get(name, readExpr());
+            }
+            case AstWriter.SET: {
+                Token name = readToken();
+                Expr object = readExpr();
+                return new Expr.Set(name, object, readExpr());
+            }
+            case AstWriter.THIS:
+                return resolved(new Expr.This(readToken()));
+            case AstWriter.SUPER: {
+                Token keyword = readToken();
+                Expr.Super expr = resolved(new Expr.Super(keyword, readToken()));
+                resolved(expr.receiver);
+                return expr;
+            }
+            case AstWriter.ARRAY: {
+                Token bracket = readToken();
+                return new Expr.Array(bracket, readExprs());
+            }
+            case AstWriter.SUBSCRIPT: {
+                Expr object = readExpr();
+                Token closeBracket = readToken();
+                return new Expr.Subscript(object, closeBracket, readExpr());
+            }
+            case AstWriter.LAMBDA: {
+                Token start = readToken();
+                List<Token> params = readTokens();
+                Expr.Lambda lambda = captures(scoped(new Expr.Lambda(start, params, readStmts())));
+                lambda.lazy = readLazy();
+                return lambda;
+            }
+        }
+        throw new IOException("Corrupt AST cache.");
+    }
+
+    private Stmt readStmt() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case AstWriter.NULL:
+                return null;
+            case AstWriter.EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case AstWriter.LET: {
+                Token name = readToken();
+                return declared(new Stmt.Let(name, readExpr()));
+            }
+            case AstWriter.BLOCK:
+                return new Stmt.Block(readStmts());
+            case AstWriter.IF: {
+                Token keyword = readToken();
+                Expr cond = readExpr();
+                Stmt thenBranch = readStmt();
+                return new Stmt.If(keyword, cond, thenBranch, readStmt());
+            }
+            case AstWriter.WHILE: {
+                Token keyword = readToken();
+                Expr cond = readExpr();
+                return new Stmt.While(keyword, cond, readStmt());
+            }
+            case AstWriter.DO_WHILE: {
+                Token keyword = readToken();
+                Expr cond = readExpr();
+                return new Stmt.DoWhile(keyword, cond, readStmt());
+            }
+            case AstWriter.FOR: {
+                Token keyword = readToken();
+                Expr init = readExpr();
+                Expr cond = readExpr();
+                Expr incr = readExpr();
+                return new Stmt.For(keyword, init, cond, incr, readStmt());
+            }
+            case AstWriter.FUNCTION: {
+                Token name = readToken();
+                List<Token> params = readTokens();
+                List<Stmt> body = readStmts();
+                Stmt.Function function = captures(scoped(declared(new Stmt.Function(name, params, body))));
+                function.lazy = readLazy();
+                return function;
+            }
+            case AstWriter.RETURN: {
+                Token keyword = readToken();
+                Stmt.Return stmt = new Stmt.Return(keyword, readExpr());
+                stmt.tail = in.readByte() != 0;
+                return stmt;
+            }
+            case AstWriter.BREAK:
+                return new Stmt.Break(readToken());
+            case AstWriter.CONTINUE:
+                return new Stmt.Continue(readToken());
+            case AstWriter.SWITCH: {
+                Expr cond = readExpr();
+                int size = readCount(1);
+                ArrayList<Object> exprs = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    exprs.add(readValue());
+                }
+                return new Stmt.Switch(cond, exprs, readStmts());
+            }
+            case AstWriter.CLASS: {
+                Token name = readToken();
+                Expr.Variable superclass = (Expr.Variable) readExpr();
+                List<Stmt> read = readStmts();
+                List<Stmt.Function> methods = new ArrayList<>(read.size());
+                for (Stmt method : read) {
+                    methods.add((Stmt.Function) method);
+                }
+                Stmt.Class stmt = declared(new Stmt.Class(name, methods, superclass));
+                if (superclass != null) {
+                    int slot = in.readInt();
+                    if (slot != -1) {
+                        resolution.declareSuper(stmt, slot);
+                        if (in.readByte() != 0) {
+                            resolution.boxSuper(stmt);
+                        }
+                    }
+                }
+                return stmt;
+            }
+            case AstWriter.USE: {
+                Token keyword = readToken();
+                return new Stmt.Use(keyword, readExpr());
+            }
+        }
+        throw new IOException("Corrupt AST cache.");
+    }
+}
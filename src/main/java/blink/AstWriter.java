@@ -0,0 +1,505 @@
+package blink;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+// Writes resolved syntax trees in the binary format read by AstReader. Along with each node
+// it writes what the resolver recorded for it, so a loaded tree can run without resolving.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x42415354;
+    static final int VERSION = 7;
+
+    static final byte NULL = 0;
+    static final byte BINARY = 1;
+    static final byte UNARY = 2;
+    static final byte LITERAL = 3;
+    static final byte GROUPING = 4;
+    static final byte VARIABLE = 5;
+    static final byte ASSIGN = 6;
+    static final byte LOGICAL = 7;
+    static final byte CONDITIONAL = 8;
+    static final byte CALL = 9;
+    static final byte GET = 10;
+    static final byte SET = 11;
+    static final byte THIS = 12;
+    static final byte SUPER = 13;
+    static final byte ARRAY = 14;
+    static final byte SUBSCRIPT = 15;
+    static final byte LAMBDA = 16;
+    static final byte EXPRESSION = 17;
+    static final byte LET = 18;
+    static final byte BLOCK = 19;
+    static final byte IF = 20;
+    static final byte WHILE = 21;
+    static final byte DO_WHILE = 22;
+    static final byte FOR = 23;
+    static final byte FUNCTION = 24;
+    static final byte RETURN = 25;
+    static final byte BREAK = 26;
+    static final byte CONTINUE = 27;
+    static final byte SWITCH = 28;
+    static final byte CLASS = 29;
+    static final byte USE = 30;
+
+    // Value tags
+    static final byte BOOLEAN = 1;
+    static final byte NUMBER = 2;
+    static final byte STRING = 3;
+
+    private final DataOutputStream out;
+    private final Resolution resolution;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    AstWriter(OutputStream out, Resolution resolution) {
+        this.out = new DataOutputStream(out);
+        this.resolution = resolution;
+    }
+
+    void write(List<Stmt> statements) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        try {
+            writeStmts(statements);
+            writeScopeSize(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    private void writeStmts(List<? extends Stmt> stmts) {
+        if (stmts == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(stmts.size());
+        for (Stmt stmt : stmts) {
+            write(stmt);
+        }
+    }
+
+    private void writeExprs(List<Expr> exprs) {
+        if (exprs == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(exprs.size());
+        for (Expr expr : exprs) {
+            write(expr);
+        }
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            writeByte(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            writeByte(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void writeTokens(List<Token> tokens) {
+        writeInt(tokens.size());
+        for (Token token : tokens) {
+            writeToken(token);
+        }
+    }
+
+    private void writeToken(Token token) {
+        if (token == null) {
+            writeByte(NULL);
+            return;
+        }
+        writeByte((byte) (token.type.ordinal() + 1));
+        writeString(token.lexeme);
+        writeValue(token.literal);
+        writeInt(token.line);
+        writeInt(token.col);
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            writeByte(BOOLEAN);
+            writeByte((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Double) {
+            writeByte(NUMBER);
+            try {
+                out.writeDouble((Double) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            writeByte(STRING);
+            writeString((String) value);
+        }
+    }
+
+    // Strings are written once and referred to by index afterwards.
+    private void writeString(String string) {
+        if (string == null) {
+            writeInt(-1);
+            return;
+        }
+        Integer index = strings.get(string);
+        if (index != null) {
+            writeInt(index);
+            return;
+        }
+        strings.put(string, strings.size());
+        writeInt(strings.size() - 1);
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeResolved(Expr.Local expr) {
+        writeInt(expr.access);
+        if (expr.access != Expr.GLOBAL) {
+            writeInt(expr.slot);
+        }
+    }
+
+    private void writeSlot(Object declaration) {
+        Integer slot = resolution.slot(declaration);
+        writeInt(slot == null ? -1 : slot);
+        if (slot != null) {
+            writeByte((byte) (resolution.boxed(declaration) ? 1 : 0));
+        }
+    }
+
+    private void writeScopeSize(Object node) {
+        writeInt(resolution.scopeSize(node));
+    }
+
+    private void writeCaptures(Object function) {
+        writeInts(resolution.upvalues(function));
+        writeInts(resolution.cells(function));
+    }
+
+    // A skimmed body is written as its source text, to be scanned and parsed when it is first
+    // called.
+    private void writeLazy(LazyBody lazy) {
+        if (lazy == null) {
+            writeByte(NULL);
+            return;
+        }
+        writeByte((byte) 1);
+        writeByte((byte) lazy.type.ordinal());
+        writeByte((byte) lazy.classType.ordinal());
+        writeInt(lazy.superSlot);
+        writeString(lazy.text());
+        writeInt(lazy.line());
+        writeInt(lazy.col());
+    }
+
+    private void writeInts(int[] values) {
+        writeInt(values.length);
+        for (int value : values) {
+            writeInt(value);
+        }
+    }
+
+    private void writeByte(byte value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Void visitBinary(Expr.Binary expr) {
+        writeByte(BINARY);
+        write(expr.left);
+        writeToken(expr.op);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Expr.Unary expr) {
+        writeByte(UNARY);
+        writeToken(expr.op);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expr.Literal expr) {
+        writeByte(LITERAL);
+        writeValue(expr.val);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expr.Grouping expr) {
+        writeByte(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Variable expr) {
+        writeByte(VARIABLE);
+        writeToken(expr.name);
+        writeResolved(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(ASSIGN);
+        writeToken(expr.name);
+        write(expr.value);
+        writeResolved(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeByte(LOGICAL);
+        write(expr.left);
+        writeToken(expr.op);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        writeByte(CONDITIONAL);
+        write(expr.cond);
+        writeToken(expr.question);
+        write(expr.thenBranch);
+        write(expr.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeByte(CALL);
+        write(expr.callee);
+        writeToken(expr.paren);
+        writeExprs(expr.args);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeByte(GET);
+        writeToken(expr.name);
+        write(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeByte(SET);
+        writeToken(expr.name);
+        write(expr.object);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeByte(THIS);
+        writeToken(expr.keyword);
+        writeResolved(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeByte(SUPER);
+        writeToken(expr.keyword);
+        writeToken(expr.method);
+        writeResolved(expr);
+        writeResolved(expr.receiver);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        writeByte(ARRAY);
+        writeToken(expr.bracket);
+        writeExprs(expr.values);
+        return null;
+    }
+
+    @Override
+    public Void visitSubscriptExpr(Expr.Subscript expr) {
+        writeByte(SUBSCRIPT);
+        write(expr.object);
+        writeToken(expr.closeBracket);
+        write(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        writeByte(LAMBDA);
+        writeToken(expr.start);
+        writeTokens(expr.params);
+        writeStmts(expr.body);
+        writeScopeSize(expr);
+        writeCaptures(expr);
+        writeLazy(expr.body == null ? expr.lazy : null);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.Expression stmt) {
+        writeByte(EXPRESSION);
+        write(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        writeByte(LET);
+        writeToken(stmt.name);
+        write(stmt.initializer);
+        writeSlot(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(BLOCK);
+        writeStmts(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeByte(IF);
+        writeToken(stmt.keyword);
+        write(stmt.cond);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeByte(WHILE);
+        writeToken(stmt.keyword);
+        write(stmt.cond);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitDoWhileStmt(Stmt.DoWhile stmt) {
+        writeByte(DO_WHILE);
+        writeToken(stmt.keyword);
+        write(stmt.cond);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        writeByte(FOR);
+        writeToken(stmt.keyword);
+        write(stmt.init);
+        write(stmt.cond);
+        write(stmt.incr);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        writeByte(FUNCTION);
+        writeToken(stmt.name);
+        writeTokens(stmt.params);
+        writeStmts(stmt.body);
+        writeSlot(stmt);
+        writeScopeSize(stmt);
+        writeCaptures(stmt);
+        writeLazy(stmt.body == null ? stmt.lazy : null);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeByte(RETURN);
+        writeToken(stmt.keyword);
+        write(stmt.expr);
+        writeByte((byte) (stmt.tail ? 1 : 0));
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        writeByte(BREAK);
+        writeToken(stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        writeByte(CONTINUE);
+        writeToken(stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        writeByte(SWITCH);
+        write(stmt.cond);
+        writeInt(stmt.exprs.size());
+        for (Object value : stmt.exprs) {
+            writeValue(value);
+        }
+        writeStmts(stmt.branches);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeByte(CLASS);
+        writeToken(stmt.name);
+        write(stmt.superclass);
+        writeStmts(stmt.methods);
+        writeSlot(stmt);
+        if (stmt.superclass != null) {
+            writeInt(stmt.superSlot);
+            if (stmt.superSlot != -1) {
+                writeByte((byte) (stmt.superBoxed ? 1 : 0));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUseStmt(Stmt.Use stmt) {
+        writeByte(USE);
+        writeToken(stmt.keyword);
+        write(stmt.module);
+        return null;
+    }
+}
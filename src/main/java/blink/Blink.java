@@ -1,37 +1,101 @@
 package blink;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
 
+// One run of the language: its interpreter or VM and its error state. Separate instances share
+// nothing mutable, so several scripts can run at once on different threads.
 public class Blink {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    private int errorCount = 0;
+    private final Interpreter interpreter;
+    private final VM vm;
+
+    public final List<Object> argv = new ArrayList<>();
+    // Set on instances that run the front end ahead of execution. They only count their errors,
+    // the run that reaches the code reports them.
+    private boolean quiet = false;
+    // While set, errors are also kept here, for LazyBody to report them again to later runs.
+    private List<Diagnostic> recording = null;
+
+    // An error as it was reported.
+    static final class Diagnostic {
+        final int line, col;
+        final String where, message;
+
+        Diagnostic(int line, int col, String where, String message) {
+            this.line = line;
+            this.col = col;
+            this.where = where;
+            this.message = message;
+        }
+    }
+
+    public Blink() {
+        this(false);
+    }
+
+    public Blink(boolean useVM) {
+        interpreter = new Interpreter(this);
+        vm = useVM ? new VM(this) : null;
+    }
 
-    public static final List<Object> argv = new ArrayList<>();
+    static Blink quiet() {
+        Blink blink = new Blink();
+        blink.quiet = true;
+        return blink;
+    }
+
+    int errorCount() {
+        return errorCount;
+    }
+
+    void record(List<Diagnostic> diagnostics) {
+        recording = diagnostics;
+    }
+
+    void report(Diagnostic diagnostic) {
+        report(diagnostic.line, diagnostic.col, diagnostic.where, diagnostic.message);
+    }
+
+    // Modules are loaded lazily when interpreted: the bodies of their top-level functions and
+    // methods are only parsed when called, most of a library going unused by any one script. The
+    // VM compiles a module whole as soon as it is used, so it has them parsed up front.
+    boolean parsesLazily() {
+        return vm == null;
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length >= 1) {
-            for (int i = 1; i < args.length; i++) {
-                argv.add(args[i]);
+        int first = 0;
+        if (args.length >= 1 && args[0].equals("--vm")) {
+            first = 1;
+        }
+        Blink blink = new Blink(first == 1);
+
+        if (args.length > first) {
+            for (int i = first + 1; i < args.length; i++) {
+                blink.argv.add(args[i]);
             }
 
             try {
-                runFile(args[0]);
+                blink.runFile(args[first]);
             } catch (IOException exception) {
-                ErrorHandler.FILE_ERROR(args[0]);
+                ErrorHandler.FILE_ERROR(args[first]);
             }
         } else {
-            runPrompt();
+            blink.runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
+    private void runFile(String path) throws IOException {
+        CharBuffer source = readSource(Paths.get(path));
         if (path.endsWith(".blink")) {
-            run(new String(bytes, Charset.defaultCharset()));
+            run(source, Paths.get(path));
             if (hadError) ErrorHandler.STATIC_ERROR();
             if (hadRuntimeError) ErrorHandler.RUNTIME_ERROR();
         } else {
@@ -39,7 +103,7 @@ public class Blink {
         }
     }
 
-    private static void runPrompt() throws IOException {
+    private void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader br = new BufferedReader(input);
 
@@ -50,41 +114,101 @@ public class Blink {
         }
     }
 
-    public static void run(String source) {
-        Tokenizer tokenizer = new Tokenizer(source);
+    public void run(String source) {
+        run(source, null);
+    }
+
+    // Maps a source file and decodes it straight into a buffer the Tokenizer scans in place.
+    static CharBuffer readSource(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return Charset.defaultCharset().decode(bytes);
+        }
+    }
+
+    private void run(CharSequence source, Path path) {
+        Resolution resolution = new Resolution();
+        List<Stmt> statements = load(source, path, path == null ? null : AstCache.hash(source), resolution, false);
+
+        if (statements == null) {
+            return;
+        }
+
+        ModuleCache.preload(statements, parsesLazily());
+        interpreter.adopt(resolution);
+        if (vm != null) {
+            // Code that failed to compile, like a jump too long to encode, must not run.
+            int errors = errorCount;
+            VMFunction script = new Compiler(this).compile(statements);
+            if (errorCount != errors) {
+                return;
+            }
+            vm.interpret(script);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    // Runs the front end over a source file, or loads its cached result when the file is
+    // unchanged, recording resolved scopes into resolution. Returns null if it reported an error.
+    // A source read from a file comes with its hash. Scripts are never loaded lazily, so all of
+    // their syntax errors are reported before they run.
+    List<Stmt> load(CharSequence source, Path path, String hash, Resolution resolution, boolean lazy) {
+        if (path != null) {
+            List<Stmt> cached = AstCache.load(path, hash, resolution, lazy);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        int errors = errorCount;
+        Tokenizer tokenizer = new Tokenizer(this, source);
         tokenizer.scanTokens();
-        List<Token> tokens = tokenizer.getTokens();
+        TokenStream tokens = tokenizer.getTokens();
 
         if (hadError) {
-            return;
+            return null;
         }
 
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(this, tokens, lazy);
         List<Stmt> statements = parser.parse();
 
         if (hadError) {
-            return;
+            return null;
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        Optimizer optimizer = new Optimizer();
+        statements = optimizer.optimize(statements);
+
+        Resolver resolver = new Resolver(this, resolution, optimizer.pruned());
         resolver.resolve(statements);
 
         if (hadError) {
-            return;
+            return null;
         }
 
-        interpreter.interpret(statements);
+        if (path != null && errorCount == errors) {
+            AstCache.store(path, hash, statements, resolution, lazy);
+        }
+        return statements;
     }
 
-    static void error(int line, int col, String message) {
+    void error(int line, int col, String message) {
         report(line, col, "", message);
     }
 
-    private static void report(int line, int col, String where, String message) {
+    private void report(int line, int col, String where, String message) {
+        errorCount++;
+        if (recording != null) {
+            recording.add(new Diagnostic(line, col, where, message));
+        }
+        if (quiet) {
+            return;
+        }
         System.err.println("[Line " + line + ", Col " + col + "] Error" + where + " : " + message);
     }
 
-    static void error(Token token, String message) {
+    void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             report(token.line, token.col, " at end", message);
         } else {
@@ -92,7 +216,7 @@ public class Blink {
         }
     }
 
-    public static void runtimeError(RuntimeError error) {
+    public void runtimeError(RuntimeError error) {
         System.err.println("[Line " + error.token.line + ", Col " + error.token.col + "] : " + error.getMessage());
         hadRuntimeError = true;
     }
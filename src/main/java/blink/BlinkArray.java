@@ -0,0 +1,133 @@
+package blink;
+
+import java.util.*;
+
+// The list behind every Blink array. While all of its elements are numbers they are stored
+// unboxed in a double[]; the first element that isn't a number moves the array over to an
+// Object[] for good.
+class BlinkArray extends AbstractList<Object> implements RandomAccess {
+    // Element storage, shared between an array and the arrays truncated from it. Each of them
+    // sees a prefix of it, and only one whose size reaches the end may append in place.
+    private static final class Storage {
+        double[] numbers;
+        Object[] values = null;
+        int end = 0;
+        boolean shared = false;
+
+        Storage(double[] numbers) {
+            this.numbers = numbers;
+        }
+    }
+
+    private Storage storage;
+    private int size;
+
+    BlinkArray() {
+        this(8);
+    }
+
+    BlinkArray(int capacity) {
+        storage = new Storage(new double[Math.max(capacity, 1)]);
+        size = 0;
+    }
+
+    private BlinkArray(Storage storage, int size) {
+        this.storage = storage;
+        this.size = size;
+    }
+
+    boolean isNumeric() {
+        return storage.values == null;
+    }
+
+    // Only valid while the array is numeric.
+    double getDouble(int index) {
+        Objects.checkIndex(index, size);
+        return storage.numbers[index];
+    }
+
+    // The first size elements as a new array, sharing this one's storage.
+    BlinkArray truncate(int size) {
+        storage.shared = true;
+        return new BlinkArray(storage, size);
+    }
+
+    @Override
+    public Object get(int index) {
+        Objects.checkIndex(index, size);
+        Storage storage = this.storage;
+        return storage.values == null ? (Object) storage.numbers[index] : storage.values[index];
+    }
+
+    @Override
+    public Object set(int index, Object value) {
+        Objects.checkIndex(index, size);
+        Object previous = get(index);
+        if (storage.shared) {
+            unshare(size);
+        }
+        if (storage.values == null && !(value instanceof Double)) {
+            generalize();
+        }
+        if (storage.values == null) {
+            storage.numbers[index] = (double) value;
+        } else {
+            storage.values[index] = value;
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean add(Object value) {
+        modCount++;
+        if (size != storage.end) {
+            // Another array still sees the elements past our end.
+            unshare(size * 2);
+        }
+        if (storage.values == null && !(value instanceof Double)) {
+            generalize();
+        }
+        Storage storage = this.storage;
+        if (storage.values == null) {
+            if (size == storage.numbers.length) {
+                storage.numbers = Arrays.copyOf(storage.numbers, size * 2);
+            }
+            storage.numbers[size] = (double) value;
+        } else {
+            if (size == storage.values.length) {
+                storage.values = Arrays.copyOf(storage.values, size * 2);
+            }
+            storage.values[size] = value;
+        }
+        size++;
+        storage.end = size;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void unshare(int capacity) {
+        capacity = Math.max(capacity, 1);
+        Storage copy;
+        if (storage.values == null) {
+            copy = new Storage(Arrays.copyOf(storage.numbers, capacity));
+        } else {
+            copy = new Storage(null);
+            copy.values = Arrays.copyOf(storage.values, capacity);
+        }
+        copy.end = size;
+        storage = copy;
+    }
+
+    private void generalize() {
+        Object[] values = new Object[storage.numbers.length];
+        for (int i = 0; i < storage.end; i++) {
+            values[i] = storage.numbers[i];
+        }
+        storage.values = values;
+        storage.numbers = null;
+    }
+}
@@ -4,5 +4,5 @@ import java.util.*;
 
 interface BlinkCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> args);
+    Object call(Interpreter interpreter, Object[] args);
 }
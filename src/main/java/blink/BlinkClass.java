@@ -4,10 +4,13 @@ import java.util.*;
 
 class BlinkClass implements BlinkCallable {
     final String name;
-    private final Map<String, BlinkFunction> methods;
+    private final Map<Symbol, BlinkFunction> methods;
     final BlinkClass superclass;
+    final Shape shape = new Shape(this);
+    // Largest field count seen so far, used to size the field array of new instances.
+    int fieldCount = 0;
 
-    BlinkClass(String name, BlinkClass superclass, Map<String, BlinkFunction> methods) {
+    BlinkClass(String name, BlinkClass superclass, Map<Symbol, BlinkFunction> methods) {
         this.name = name;
         this.methods = methods;
         this.superclass = superclass;
@@ -15,7 +18,7 @@ class BlinkClass implements BlinkCallable {
 
     @Override
     public int arity() {
-        BlinkFunction initializer = methods.get("init");
+        BlinkFunction initializer = methods.get(Symbol.INIT);
         if (initializer == null) {
             return 0;
         }
@@ -24,11 +27,11 @@ class BlinkClass implements BlinkCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         BlinkInstance instance = new BlinkInstance(this);
-        BlinkFunction initializer = methods.get("init");
+        BlinkFunction initializer = methods.get(Symbol.INIT);
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, instance, arguments);
         }
 
         return instance;
@@ -49,13 +52,23 @@ class BlinkClass implements BlinkCallable {
         return false;
     }
 
-    public BlinkFunction findMethod(BlinkInstance instance, String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name).bind(instance);
+    public BlinkFunction findMethod(BlinkInstance instance, Symbol name) {
+        BlinkFunction method = findMethod(name);
+        if (method == null) {
+            return null;
+        }
+
+        return method.bind(instance);
+    }
+
+    BlinkFunction findMethod(Symbol name) {
+        BlinkFunction method = methods.get(name);
+        if (method != null) {
+            return method;
         }
 
         if (superclass != null) {
-            return superclass.findMethod(instance, name);
+            return superclass.findMethod(name);
         }
 
         return null;
@@ -6,47 +6,149 @@ class BlinkFunction implements BlinkCallable {
     private final String name;
     private final FunctionType type;
     private final List<Token> params;
-    private final List<Stmt> body;
-    private final Environment closure;
+    private List<Stmt> body;
+    // The cells captured from the enclosing functions when the closure was created.
+    private final Cell[] upvalues;
+    private int size;
+    // Slots of the parameters that closures capture, boxed into cells on entry.
+    private int[] cells;
+    // The Stmt.Function or Expr.Lambda, and its skimmed body until the first call parses it.
+    // Only then are the body, frame size and boxed parameters known.
+    private final Object declaration;
+    private LazyBody lazy;
+    // Methods keep "this" in slot 0 of their frame, ahead of the parameters.
+    private final boolean isMethod;
     private final boolean isInitializer;
+    final BlinkInstance receiver;
+    // Frames of finished calls, kept for the next call. Closures only hold on to the cells of a
+    // frame, never the frame itself. Bound copies share the pool of their method.
+    private final Frames frames;
 
-    BlinkFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-        this(declaration.name.lexeme, FunctionType.FUNCTION, declaration.params, declaration.body, closure, isInitializer);
+    // Frames all have the same upvalues and size, so any one of them fits any call. Only a few
+    // are kept: enough for calls that nest a little, not every level of a deep recursion.
+    private static final class Frames {
+        static final int MAX_FREE = 8;
+
+        final Environment[] free = new Environment[MAX_FREE];
+        int count = 0;
+    }
+
+    BlinkFunction(Stmt.Function declaration, Cell[] upvalues, int size, int[] cells, FunctionType kind) {
+        this(declaration.name.lexeme, FunctionType.FUNCTION, declaration.params, declaration.body, upvalues, size,
+                cells, kind != FunctionType.FUNCTION, kind == FunctionType.INITIALIZER, null, new Frames(),
+                declaration, declaration.lazy);
     }
 
-    BlinkFunction(Expr.Lambda declaration, Environment closure, boolean isInitializer) {
-        this("", FunctionType.LAMBDA, declaration.params, declaration.body, closure, isInitializer);
+    BlinkFunction(Expr.Lambda declaration, Cell[] upvalues, int size, int[] cells) {
+        this("", FunctionType.LAMBDA, declaration.params, declaration.body, upvalues, size, cells, false, false,
+                null, new Frames(), declaration, declaration.lazy);
     }
 
-    BlinkFunction(String name, FunctionType type, List<Token> params, List<Stmt> body, Environment closure, boolean isInitializer) {
+    private BlinkFunction(String name, FunctionType type, List<Token> params, List<Stmt> body, Cell[] upvalues,
+                          int size, int[] cells, boolean isMethod, boolean isInitializer, BlinkInstance receiver,
+                          Frames frames, Object declaration, LazyBody lazy) {
         this.name = name;
         this.type = type;
         this.params = params;
         this.body = body;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.size = size;
+        this.cells = cells;
+        this.isMethod = isMethod;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
+        this.frames = frames;
+        this.declaration = declaration;
+        this.lazy = lazy;
     }
 
     BlinkFunction bind(BlinkInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new BlinkFunction(name, type, params, body, environment, isInitializer);
+        return new BlinkFunction(name, type, params, body, upvalues, size, cells, isMethod, isInitializer, instance,
+                frames, declaration, lazy);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> args) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < params.size(); i++) {
-            environment.define(params.get(i).lexeme, args.get(i));
-        }
-        try {
-            interpreter.executeBlock(body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
-        }
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+    public Object call(Interpreter interpreter, Object[] args) {
+        return call(interpreter, receiver, args);
+    }
+
+    // Calls a method with its receiver passed straight into the frame, no bound copy needed.
+    // Calls the body leaves in tail position are made here as well, one after the other, once
+    // the caller's frame is released, so tail recursion runs in constant stack.
+    Object call(Interpreter interpreter, BlinkInstance receiver, Object[] args) {
+        BlinkFunction function = this;
+        while (true) {
+            Completion completion = function.execute(interpreter, receiver, args);
+            if (function.isInitializer) return receiver;
+            if (completion != Completion.RETURN) return null;
+            if (interpreter.tailCall == null) {
+                Object value = interpreter.returnValue;
+                interpreter.returnValue = null;
+                return value;
+            }
+            function = interpreter.tailCall;
+            receiver = interpreter.tailReceiver;
+            args = interpreter.tailArgs;
+            interpreter.tailCall = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArgs = null;
+        }
+    }
+
+    private Completion execute(Interpreter interpreter, BlinkInstance receiver, Object[] args) {
+        if (lazy != null) {
+            load(interpreter);
+        }
+        Environment environment = acquire();
+        int first = 0;
+        if (isMethod) {
+            environment.define(0, receiver);
+            first = 1;
+        }
+        for (int i = 0; i < args.length; i++) {
+            environment.define(first + i, args[i]);
+        }
+        for (int slot : cells) {
+            environment.slots[slot] = new Cell(environment.slots[slot]);
+        }
+        Completion completion = interpreter.executeBlock(body, environment);
+        // A call that ends in a runtime error never gets here, its frame is simply dropped.
+        release(environment);
+        return completion;
+    }
+
+    private void load(Interpreter interpreter) {
+        Resolution resolution = lazy.resolve(interpreter.blink, declaration);
+        if (resolution == null) {
+            Token token = declaration instanceof Stmt.Function
+                    ? ((Stmt.Function) declaration).name : ((Expr.Lambda) declaration).start;
+            throw new RuntimeError(token, "Function body has errors.");
+        }
+        body = lazy.body();
+        if (declaration instanceof Stmt.Function) {
+            size = ((Stmt.Function) declaration).scopeSize;
+            cells = ((Stmt.Function) declaration).cells;
+        } else {
+            size = ((Expr.Lambda) declaration).scopeSize;
+            cells = ((Expr.Lambda) declaration).cells;
+        }
+        lazy = null;
+    }
+
+    private Environment acquire() {
+        if (frames != null && frames.count > 0) {
+            Environment environment = frames.free[--frames.count];
+            frames.free[frames.count] = null;
+            return environment;
+        }
+        return new Environment(size, upvalues);
+    }
+
+    private void release(Environment environment) {
+        if (frames.count < Frames.MAX_FREE) {
+            environment.clear();
+            frames.free[frames.count++] = environment;
+        }
     }
 
     @Override
@@ -4,10 +4,13 @@ import java.util.*;
 
 class BlinkInstance {
     private BlinkClass _class;
-    private final Map<String, Object> fields = new HashMap<>();
+    Shape shape;
+    Object[] fields;
 
     BlinkInstance(BlinkClass _class) {
         this._class = _class;
+        this.shape = _class.shape;
+        this.fields = new Object[Math.max(_class.fieldCount, 4)];
     }
 
     @Override
@@ -15,21 +18,14 @@ class BlinkInstance {
         return "<" + _class.name + " instance>";
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    void reshape(Shape next) {
+        if (next.size() > fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
         }
-
-        BlinkFunction method = _class.findMethod(this, name.lexeme);
-        if (method != null) {
-            return method;
+        if (next.size() > _class.fieldCount) {
+            _class.fieldCount = next.size();
         }
-
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
-    }
-
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        shape = next;
     }
 
     BlinkClass _class() {
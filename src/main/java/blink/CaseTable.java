@@ -0,0 +1,78 @@
+package blink;
+
+import java.util.*;
+
+// Finds the branch of a switch for a value in constant time. Case constants are hashed, or
+// when they are all small whole numbers, looked up in an array indexed by the value. Values
+// without a case go to the default branch, or -1 when there isn't one.
+class CaseTable {
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    // A dense table may be at most this many times larger than the number of cases.
+    private static final int MAX_SPREAD = 4;
+
+    private final Map<Object, Integer> indices;
+    private final int[] dense;
+    private final int min;
+    private final int fallback;
+
+    CaseTable(List<Object> exprs) {
+        fallback = exprs.indexOf("default");
+
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+        boolean integral = true;
+        for (int i = 0; i < exprs.size() && integral; i++) {
+            Object value = exprs.get(i);
+            if (i == fallback) {
+                continue;
+            }
+            if (value instanceof Double && (double) (int) (double) value == (double) value) {
+                low = Math.min(low, (int) (double) value);
+                high = Math.max(high, (int) (double) value);
+            } else {
+                integral = false;
+            }
+        }
+
+        long span = (long) high - low + 1;
+        if (integral && low <= high && span <= (long) MAX_SPREAD * exprs.size() + 16) {
+            indices = null;
+            min = low;
+            dense = new int[(int) span];
+            Arrays.fill(dense, -1);
+            for (int i = exprs.size() - 1; i >= 0; i--) {
+                if (i != fallback) {
+                    dense[(int) (double) exprs.get(i) - min] = i;
+                }
+            }
+        } else {
+            dense = null;
+            min = 0;
+            indices = new HashMap<>();
+            for (int i = 0; i < exprs.size(); i++) {
+                indices.putIfAbsent(exprs.get(i), i);
+            }
+        }
+    }
+
+    int index(Object value) {
+        if (dense != null) {
+            if (value instanceof Double) {
+                double number = (double) value;
+                int key = (int) number;
+                // Case constants are never -0, which equals 0 but isn't the same Double.
+                if (key == number && key >= min && key - min < dense.length
+                        && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO) {
+                    int index = dense[key - min];
+                    if (index != -1) {
+                        return index;
+                    }
+                }
+            }
+            return fallback;
+        }
+
+        Integer index = indices.get(value);
+        return index != null ? index : fallback;
+    }
+}
@@ -0,0 +1,12 @@
+package blink;
+
+// A local variable that a closure captures. The frame that declared it and every closure that
+// captured it share the cell, so the variable outlives the call without keeping the rest of
+// that call's frame alive.
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,46 @@
+package blink;
+
+import java.util.*;
+
+class Chunk {
+    byte[] code = new byte[64];
+    Token[] tokens = new Token[64];
+    Object[] constants = new Object[16];
+    int count = 0;
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int value, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = (byte) value;
+        tokens[count] = token;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        // Strings, numbers and symbols are immutable, so identical values can share a slot
+        boolean shareable = value instanceof String || value instanceof Double || value instanceof Symbol;
+        if (shareable) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        if (shareable) {
+            constantIndex.put(value, constantCount);
+        }
+        return constantCount++;
+    }
+
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+}
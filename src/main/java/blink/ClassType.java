@@ -0,0 +1,7 @@
+package blink;
+
+enum ClassType {
+    NONE,
+    CLASS,
+    SUBCLASS
+}
@@ -0,0 +1,791 @@
+package blink;
+
+import java.util.*;
+
+import static blink.OpCode.*;
+
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_SHORT = 0xffff;
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    // A forward jump still to be patched, with the statement to blame if it is too long.
+    private static class Jump {
+        final int offset;
+        final Token token;
+
+        Jump(int offset, Token token) {
+            this.offset = offset;
+            this.token = token;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final boolean isSwitch;
+        final int scopeDepth;
+        // Offset continues jump back to, or -1 when they are patched forward to the increment or condition
+        int continueTarget = -1;
+        final List<Jump> breaks = new ArrayList<>();
+        final List<Jump> continues = new ArrayList<>();
+
+        Loop(Loop enclosing, boolean isSwitch, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.isSwitch = isSwitch;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        final List<Boolean> upvalueIsLocal = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+        Loop loop;
+
+        FunctionState(FunctionState enclosing, VMFunction function) {
+            this.enclosing = enclosing;
+            this.function = function;
+        }
+    }
+
+    private final Blink blink;
+    private FunctionState current;
+
+    Compiler(Blink blink) {
+        this.blink = blink;
+    }
+
+    VMFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VMFunction("", FunctionType.NONE, 0));
+        addLocal("", null);
+        current.stackDepth = 1;
+        trackStack();
+        for (Stmt stmt : statements) {
+            compile(stmt);
+        }
+        emitReturn(null);
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Statements
+
+    @Override
+    public Void visitExprStmt(Stmt.Expression stmt) {
+        compile(stmt.expr);
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(UNINITIALIZED, stmt.name);
+        }
+
+        if (current.scopeDepth == 0) {
+            emitWithShort(LET_GLOBAL, identifier(stmt.name), stmt.name);
+        } else {
+            addLocal(stmt.name.lexeme, stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.cond);
+        int elseJump = emitJump(JUMP_IF_FALSE, stmt.keyword);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            int endJump = emitJump(JUMP, stmt.keyword);
+            patchJump(elseJump, stmt.keyword);
+            compile(stmt.elseBranch);
+            patchJump(endJump, stmt.keyword);
+        } else {
+            patchJump(elseJump, stmt.keyword);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.cond);
+        int exitJump = emitJump(JUMP_IF_FALSE, stmt.keyword);
+
+        Loop loop = beginLoop(false);
+        loop.continueTarget = loopStart;
+        compile(stmt.body);
+        emitLoop(loopStart, stmt.keyword);
+
+        patchJump(exitJump, stmt.keyword);
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitDoWhileStmt(Stmt.DoWhile stmt) {
+        int bodyStart = chunk().count;
+        Loop loop = beginLoop(false);
+        compile(stmt.body);
+
+        patchAll(loop.continues);
+        compile(stmt.cond);
+        int exitJump = emitJump(JUMP_IF_FALSE, stmt.keyword);
+        emitLoop(bodyStart, stmt.keyword);
+
+        patchJump(exitJump, stmt.keyword);
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.init != null) {
+            compile(stmt.init);
+            emit(POP, null);
+        }
+
+        int loopStart = chunk().count;
+        int exitJump = -1;
+        if (stmt.cond != null) {
+            compile(stmt.cond);
+            exitJump = emitJump(JUMP_IF_FALSE, stmt.keyword);
+        }
+
+        Loop loop = beginLoop(false);
+        compile(stmt.body);
+
+        patchAll(loop.continues);
+        if (stmt.incr != null) {
+            compile(stmt.incr);
+            emit(POP, null);
+        }
+        emitLoop(loopStart, stmt.keyword);
+
+        if (exitJump != -1) {
+            patchJump(exitJump, stmt.keyword);
+        }
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (current.scopeDepth == 0) {
+            function(stmt.name, stmt.name.lexeme, FunctionType.FUNCTION, stmt.params, body(stmt));
+            emitWithShort(DEFINE_GLOBAL, identifier(stmt.name), stmt.name);
+        } else {
+            // Declared before the body is compiled so the function can refer to itself
+            addLocal(stmt.name.lexeme, stmt.name);
+            function(stmt.name, stmt.name.lexeme, FunctionType.FUNCTION, stmt.params, body(stmt));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.expr == null) {
+            emitReturn(stmt.keyword);
+        } else {
+            compile(stmt.expr);
+            emit(RETURN, stmt.keyword);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        if (loop == null) {
+            blink.error(stmt.keyword, "Break can only used be inside switch cases & loops.");
+            return null;
+        }
+        emitUnwind(loop.scopeDepth, stmt.keyword);
+        loop.breaks.add(new Jump(emitJump(JUMP, stmt.keyword), stmt.keyword));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        Loop loop = current.loop;
+        if (loop == null) {
+            blink.error(stmt.keyword, "Continue can only used be inside loops.");
+            return null;
+        }
+        emitUnwind(loop.scopeDepth, stmt.keyword);
+        if (loop.isSwitch) {
+            // The tree-walker lets a switch swallow continues as well as breaks
+            loop.breaks.add(new Jump(emitJump(JUMP, stmt.keyword), stmt.keyword));
+        } else if (loop.continueTarget != -1) {
+            emitLoop(loop.continueTarget, stmt.keyword);
+        } else {
+            loop.continues.add(new Jump(emitJump(JUMP, stmt.keyword), stmt.keyword));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        compile(stmt.cond);
+        SwitchCases cases = new SwitchCases(stmt.exprs);
+        emitWithShort(SWITCH, constant(cases, null), null);
+
+        Loop loop = beginLoop(true);
+        for (int i = 0; i < stmt.branches.size(); i++) {
+            cases.targets[i] = chunk().count;
+            if (stmt.branches.get(i) != null) {
+                compile(stmt.branches.get(i));
+            }
+        }
+        cases.end = chunk().count;
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        int name = identifier(stmt.name);
+        emitWithShort(CLASS, name, stmt.name);
+        if (current.scopeDepth == 0) {
+            emitWithShort(DEFINE_GLOBAL, name, stmt.name);
+        } else {
+            addLocal(stmt.name.lexeme, stmt.name);
+        }
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            beginScope();
+            addLocal("super", stmt.superclass.name);
+            variable(stmt.name);
+            emit(INHERIT, stmt.superclass.name);
+        }
+
+        variable(stmt.name);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method.name, method.name.lexeme, type, method.params, body(method));
+            emitWithShort(METHOD, identifier(method.name), method.name);
+        }
+        emit(POP, null);
+
+        if (stmt.superclass != null) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUseStmt(Stmt.Use stmt) {
+        compile(stmt.module);
+        emit(USE, stmt.keyword);
+        return null;
+    }
+
+    // Expressions
+
+    @Override
+    public Void visitBinary(Expr.Binary expr) {
+        compile(expr.left);
+        if (expr.op.type == TokenType.COMMA) {
+            emit(POP, null);
+            compile(expr.right);
+            return null;
+        }
+
+        compile(expr.right);
+        switch (expr.op.type) {
+            case PLUS: emit(ADD, expr.op); break;
+            case MINUS: emit(SUBTRACT, expr.op); break;
+            case MUL: emit(MULTIPLY, expr.op); break;
+            case DIV: emit(DIVIDE, expr.op); break;
+            case MOD: emit(MODULO, expr.op); break;
+            case EXP: emit(POWER, expr.op); break;
+            case GREATER: emit(GREATER, expr.op); break;
+            case GREATER_EQUALS: emit(GREATER_EQUAL, expr.op); break;
+            case LESS: emit(LESS, expr.op); break;
+            case LESS_EQUALS: emit(LESS_EQUAL, expr.op); break;
+            case EQUALS: emit(EQUAL, expr.op); break;
+            case NOT_EQUALS: emit(NOT_EQUAL, expr.op); break;
+            case BIT_AND: emit(BIT_AND, expr.op); break;
+            case BIT_OR: emit(BIT_OR, expr.op); break;
+            case BIT_XOR: emit(BIT_XOR, expr.op); break;
+            default:
+                // Operators the tree-walker silently evaluates to null
+                emit(POP, null);
+                emit(POP, null);
+                emit(NULL, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.op.type) {
+            case MINUS: emit(NEGATE, expr.op); break;
+            case NOT: emit(NOT, expr.op); break;
+            case BIT_NOT: emit(BIT_NOT, expr.op); break;
+            default:
+                emit(POP, null);
+                emit(NULL, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expr.Literal expr) {
+        if (expr.val == null) {
+            emit(NULL, null);
+        } else if (expr.val instanceof Boolean) {
+            emit((boolean) expr.val ? TRUE : FALSE, null);
+        } else {
+            emitWithShort(CONSTANT, constant(expr.val, null), null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Variable expr) {
+        variable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        String name = expr.name.lexeme;
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emitWithByte(SET_LOCAL, arg, expr.name);
+        } else if ((arg = resolveUpvalue(current, name, expr.name)) != -1) {
+            emitWithByte(SET_UPVALUE, arg, expr.name);
+        } else {
+            emitWithShort(SET_GLOBAL, identifier(expr.name), expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        int depth = current.stackDepth;
+        compile(expr.left);
+        int shortCircuit = emitJump(JUMP_IF_FALSE, expr.op);
+        if (expr.op.type == TokenType.OR) {
+            emit(TRUE, null);
+            int endJump = emitJump(JUMP, expr.op);
+            patchJump(shortCircuit, expr.op);
+            compile(expr.right);
+            emit(TRUTHY, null);
+            patchJump(endJump, expr.op);
+        } else {
+            compile(expr.right);
+            emit(TRUTHY, null);
+            int endJump = emitJump(JUMP, expr.op);
+            patchJump(shortCircuit, expr.op);
+            emit(FALSE, null);
+            patchJump(endJump, expr.op);
+        }
+        current.stackDepth = depth + 1;
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        int depth = current.stackDepth;
+        compile(expr.cond);
+        int elseJump = emitJump(JUMP_IF_FALSE, expr.question);
+        compile(expr.thenBranch);
+        int endJump = emitJump(JUMP, expr.question);
+        patchJump(elseJump, expr.question);
+        compile(expr.elseBranch);
+        patchJump(endJump, expr.question);
+        current.stackDepth = depth + 1;
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // Method calls skip materializing a bound method
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            for (Expr arg : expr.args) {
+                compile(arg);
+            }
+            emitWithShort(INVOKE, identifier(get.name), get.name);
+            emit(expr.args.size(), expr.paren);
+            current.stackDepth -= expr.args.size();
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+        emitWithByte(CALL, expr.args.size(), expr.paren);
+        current.stackDepth -= expr.args.size();
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emitWithShort(GET_PROPERTY, identifier(expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        emitWithShort(SET_PROPERTY, identifier(expr.name), expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        variable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        variable(new Token(TokenType.THIS, "this", null, expr.keyword.line, expr.keyword.col));
+        variable(expr.keyword);
+        emitWithShort(GET_SUPER, identifier(expr.method), expr.method);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        int size = 0;
+        if (expr.values != null) {
+            for (Expr value : expr.values) {
+                compile(value);
+            }
+            size = expr.values.size();
+        }
+        if (size > MAX_SHORT) {
+            blink.error(expr.bracket, "Too many elements in array literal.");
+        }
+        emitWithShort(ARRAY, size, expr.bracket);
+        current.stackDepth -= size;
+        return null;
+    }
+
+    @Override
+    public Void visitSubscriptExpr(Expr.Subscript expr) {
+        compile(expr.object);
+        compile(expr.index);
+        emit(SUBSCRIPT, expr.closeBracket);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        function(expr.start, "", FunctionType.LAMBDA, expr.params, body(expr));
+        return null;
+    }
+
+    // Functions
+
+    // A module the interpreter loaded first can still have bodies the Parser skimmed, they are
+    // parsed here. One with errors, already reported, compiles to nothing.
+    private List<Stmt> body(Stmt.Function function) {
+        if (function.lazy == null) {
+            return function.body;
+        }
+        return function.lazy.resolve(blink, function) == null ? new ArrayList<>() : function.lazy.body();
+    }
+
+    private List<Stmt> body(Expr.Lambda function) {
+        if (function.lazy == null) {
+            return function.body;
+        }
+        return function.lazy.resolve(blink, function) == null ? new ArrayList<>() : function.lazy.body();
+    }
+
+    private void function(Token token, String name, FunctionType type, List<Token> params, List<Stmt> body) {
+        current = new FunctionState(current, new VMFunction(name, type, params.size()));
+        boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        addLocal(isMethod ? "this" : "", token);
+        beginScope();
+        for (Token param : params) {
+            addLocal(param.lexeme, param);
+        }
+        // The callee (or receiver) and the arguments are already on the stack when the frame starts
+        current.stackDepth = params.size() + 1;
+        trackStack();
+        for (Stmt stmt : body) {
+            compile(stmt);
+        }
+        emitReturn(token);
+
+        FunctionState state = current;
+        VMFunction function = endFunction();
+        emitWithShort(CLOSURE, constant(function, token), token);
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            emit(state.upvalueIsLocal.get(i) ? 1 : 0, token);
+            emit(state.upvalues.get(i), token);
+        }
+    }
+
+    private VMFunction endFunction() {
+        VMFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void emitReturn(Token token) {
+        if (current.function.type == FunctionType.INITIALIZER) {
+            emitWithByte(GET_LOCAL, 0, token);
+        } else {
+            emit(NULL, token);
+        }
+        emit(RETURN, token);
+    }
+
+    // Scopes and variables
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        int count = 0;
+        boolean captured = false;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            captured |= locals.remove(locals.size() - 1).captured;
+            count++;
+        }
+        if (count == 1 && !captured) {
+            emit(POP, null);
+        } else if (count > 0) {
+            emitWithByte(UNWIND, count, null);
+            current.stackDepth -= count;
+        }
+    }
+
+    private Loop beginLoop(boolean isSwitch) {
+        Loop loop = new Loop(current.loop, isSwitch, current.scopeDepth);
+        current.loop = loop;
+        return loop;
+    }
+
+    private void endLoop(Loop loop) {
+        patchAll(loop.breaks);
+        current.loop = loop.enclosing;
+    }
+
+    private void emitUnwind(int depth, Token token) {
+        // Jumping out of a loop discards every local declared inside it, but the code after the
+        // jump still sees them, so the tracked stack depth is left untouched
+        int count = 0;
+        for (int i = current.locals.size() - 1; i >= 0 && current.locals.get(i).depth > depth; i--) {
+            count++;
+        }
+        if (count > 0) {
+            emitWithByte(UNWIND, count, token);
+        }
+    }
+
+    private void addLocal(String name, Token token) {
+        if (current.locals.size() == MAX_LOCALS) {
+            blink.error(token, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void variable(Token name) {
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emitWithByte(GET_LOCAL, arg, name);
+        } else if ((arg = resolveUpvalue(current, name.lexeme, name)) != -1) {
+            emitWithByte(GET_UPVALUE, arg, name);
+        } else {
+            emitWithShort(GET_GLOBAL, identifier(name), name);
+        }
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name, Token token) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, local, true, token);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name, token);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false, token);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token token) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            if (state.upvalues.get(i) == index && state.upvalueIsLocal.get(i) == isLocal) {
+                return i;
+            }
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            blink.error(token, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(index);
+        state.upvalueIsLocal.add(isLocal);
+        return state.upvalues.size() - 1;
+    }
+
+    // Bytecode emission
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private int identifier(Token name) {
+        return constant(name.symbol, name);
+    }
+
+    private int constant(Object value, Token token) {
+        int index = chunk().addConstant(value);
+        if (index > MAX_SHORT) {
+            blink.error(token, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emit(int value, Token token) {
+        chunk().write(value, token);
+    }
+
+    private void emit(byte op, Token token) {
+        chunk().write(op, token);
+        current.stackDepth += stackEffect(op);
+        trackStack();
+    }
+
+    private void emitWithByte(byte op, int operand, Token token) {
+        emit(op, token);
+        emit(operand, token);
+    }
+
+    private void emitWithShort(byte op, int operand, Token token) {
+        emit(op, token);
+        emit((operand >> 8) & 0xff, token);
+        emit(operand & 0xff, token);
+    }
+
+    private int emitJump(byte op, Token token) {
+        emitWithShort(op, MAX_SHORT, token);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset, Token token) {
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_SHORT) {
+            blink.error(token, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void patchAll(List<Jump> jumps) {
+        for (Jump jump : jumps) {
+            patchJump(jump.offset, jump.token);
+        }
+    }
+
+    private void emitLoop(int loopStart, Token token) {
+        emit(LOOP, token);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > MAX_SHORT) {
+            blink.error(token, "Loop body too large.");
+        }
+        emit((offset >> 8) & 0xff, token);
+        emit(offset & 0xff, token);
+    }
+
+    private void trackStack() {
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private static int stackEffect(byte op) {
+        switch (op) {
+            case CONSTANT: case NULL: case TRUE: case FALSE: case UNINITIALIZED:
+            case GET_LOCAL: case GET_UPVALUE: case GET_GLOBAL: case CLOSURE: case CLASS:
+                return 1;
+            case POP: case DEFINE_GLOBAL: case LET_GLOBAL: case SET_PROPERTY: case GET_SUPER:
+            case ADD: case SUBTRACT: case MULTIPLY: case DIVIDE: case MODULO: case POWER:
+            case EQUAL: case NOT_EQUAL: case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+            case BIT_AND: case BIT_OR: case BIT_XOR:
+            case JUMP_IF_FALSE: case SWITCH: case RETURN: case INHERIT: case METHOD:
+            case SUBSCRIPT: case USE:
+                return -1;
+            case ARRAY:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
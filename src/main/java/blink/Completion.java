@@ -0,0 +1,8 @@
+package blink;
+
+enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN
+}
@@ -3,69 +3,69 @@ package blink;
 import java.util.*;
 
 class Environment {
-    private final Map<String, Object> values = new HashMap<>();
-    final Environment enclosing;
+    // Only the global environment looks variables up by name. Every other environment is the
+    // frame of one call: the locals of the function, blocks included, in the slots assigned by
+    // the Resolver, and the cells its closure captured from the functions around it.
+    private final Globals values;
+    Object[] slots;
+    final Cell[] upvalues;
 
     Environment() {
-        enclosing = null;
+        values = new Globals();
+        slots = null;
+        upvalues = null;
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    Environment(int size, Cell[] upvalues) {
+        values = null;
+        slots = new Object[size];
+        this.upvalues = upvalues;
     }
 
-    void define(Token varToken, String name, Object value) {
-        if (values.containsKey(name)) {
-            throw new RuntimeError(varToken, "Variable '" + name + "' already exists.");
+    void define(Token name, Object value) {
+        if (values.get(name.symbol) != null) {
+            throw new RuntimeError(name, "Variable '" + name.lexeme + "' already exists.");
         }
 
-        values.put(name, value);
+        values.put(name.symbol, new GlobalCell(value));
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    void define(Symbol name, Object value) {
+        GlobalCell cell = values.get(name);
+        if (cell != null) {
+            cell.value = value;
+        } else {
+            values.put(name, new GlobalCell(value));
         }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    void define(int slot, Object value) {
+        if (slot >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
         }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
+        slots[slot] = value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    // Empties a frame so it can be handed to another call.
+    void clear() {
+        Arrays.fill(slots, null);
     }
 
-    Object getAt(int distance, Token name) {
-        return ancestor(distance).get(name);
+    void assign(Token name, Object value) {
+        cell(name).value = value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object get(Token name) {
+        return cell(name).value;
     }
 
-    private Environment ancestor(int distance) {
-        Environment env = this;
-        for (int i = 0; i < distance; i++) {
-            env = env.enclosing;
+    GlobalCell cell(Token name) {
+        GlobalCell cell = values.get(name.symbol);
+        if (cell == null) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
         }
 
-        return env;
+        return cell;
     }
 }
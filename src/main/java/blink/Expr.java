@@ -3,6 +3,14 @@ package blink;
 import java.util.*;
 
 abstract class Expr {
+    // How a resolved variable reference reaches its variable: by name through its global cell,
+    // in a slot of the current frame, through a Cell in such a slot when closures capture the
+    // variable, or through one of the cells the running closure captured.
+    static final int GLOBAL = -1;
+    static final int LOCAL = 0;
+    static final int CELL = 1;
+    static final int UPVALUE = 2;
+
     abstract <T> T accept(Visitor<T> vis);
 
     interface Visitor<T> {
@@ -27,6 +35,8 @@ abstract class Expr {
     static class Binary extends Expr {
         final Expr left, right;
         Token op;
+        // Cleared once this node sees a non-number, after which it is always evaluated boxed.
+        boolean numeric = true;
 
         Binary(Expr left, Token op, Expr right) {
             this.left = left;
@@ -43,6 +53,7 @@ abstract class Expr {
     static class Unary extends Expr {
         final Expr right;
         Token op;
+        boolean numeric = true;
 
         Unary(Token op, Expr right) {
             this.op = op;
@@ -81,7 +92,14 @@ abstract class Expr {
         }
     }
 
-    static class Variable extends Expr {
+    // A reference to a variable, resolved in place: the Resolver records how it is reached and
+    // its slot or upvalue index, or leaves access at GLOBAL.
+    abstract static class Local extends Expr {
+        int access = GLOBAL;
+        int slot = 0;
+    }
+
+    static class Variable extends Local {
         final Token name;
 
         Variable(Token name) {
@@ -94,7 +112,7 @@ abstract class Expr {
         }
     }
 
-    static class Assign extends Expr {
+    static class Assign extends Local {
         final Token name;
         final Expr value;
 
@@ -125,9 +143,11 @@ abstract class Expr {
 
     static class Conditional extends Expr {
         final Expr cond, thenBranch, elseBranch;
+        final Token question;
 
-        Conditional(Expr cond, Expr thenBranch, Expr elseBranch) {
+        Conditional(Expr cond, Token question, Expr thenBranch, Expr elseBranch) {
             this.cond = cond;
+            this.question = question;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
         }
@@ -156,6 +176,7 @@ abstract class Expr {
     static class Get extends Expr {
         Token name;
         Expr object;
+        final InlineCache cache = new InlineCache();
 
         Get(Token name, Expr object) {
             this.name = name;
@@ -170,6 +191,7 @@ abstract class Expr {
     static class Set extends Expr {
         Token name;
         Expr object, value;
+        final InlineCache cache = new InlineCache();
 
         Set(Token name, Expr object, Expr value) {
             this.name = name;
@@ -182,7 +204,7 @@ abstract class Expr {
         }
     }
 
-    static class This extends Expr {
+    static class This extends Local {
         Token keyword;
 
         This(Token keyword) {
@@ -194,12 +216,15 @@ abstract class Expr {
         }
     }
 
-    static class Super extends Expr {
+    static class Super extends Local {
         Token keyword, method;
+        // The "this" the method is looked up for, resolved alongside "super" itself.
+        final This receiver;
 
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
+            this.receiver = new This(keyword);
         }
 
         <T> T accept(Visitor<T> vis) {
@@ -208,9 +233,11 @@ abstract class Expr {
     }
 
     static class Array extends Expr {
+        final Token bracket;
         List<Expr> values;
 
-        Array(List<Expr> values) {
+        Array(Token bracket, List<Expr> values) {
+            this.bracket = bracket;
             this.values = values;
         }
 
@@ -234,6 +261,12 @@ abstract class Expr {
         Token start;
         List<Token> params;
         List<Stmt> body;
+        // Set instead of body until the body is parsed, when the Parser only skimmed it.
+        LazyBody lazy;
+        // Recorded by the Resolver, as for Stmt.Function.
+        int scopeSize = 0;
+        int[] upvalues = Resolution.NONE;
+        int[] cells = Resolution.NONE;
 
         Lambda(Token start, List<Token> params, List<Stmt> body) {
             this.start = start;
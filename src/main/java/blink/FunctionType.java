@@ -0,0 +1,9 @@
+package blink;
+
+enum FunctionType {
+    NONE,
+    FUNCTION,
+    METHOD,
+    LAMBDA,
+    INITIALIZER;
+}
@@ -0,0 +1,11 @@
+package blink;
+
+// Storage for one global variable. A name keeps the same cell for as long as its global table
+// lives; redefining the global, with `use` or a later declaration, only replaces the value inside.
+class GlobalCell {
+    Object value;
+
+    GlobalCell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,18 @@
+package blink;
+
+import java.util.*;
+
+// The global variables of one run, by name. The table is per run: syntax trees and chunks are
+// shared between runs and hold nothing that points into it. Symbols hash to a value computed
+// once and compare by identity, so a lookup is one probe of the map.
+class Globals {
+    private final Map<Symbol, GlobalCell> cells = new HashMap<>();
+
+    GlobalCell get(Symbol name) {
+        return cells.get(name);
+    }
+
+    void put(Symbol name, GlobalCell cell) {
+        cells.put(name, cell);
+    }
+}
@@ -0,0 +1,121 @@
+package blink;
+
+import java.util.*;
+
+// Polymorphic inline cache for a property access site. Each entry remembers what a lookup
+// resolved to for one shape: a field offset, a method, or for stores the shape to transition to.
+// Syntax trees can be shared between interpreters running on different threads, so entries are
+// immutable and the array holding them is replaced rather than written to. Each entry records the
+// interpreter that made it, whose classes its shape belongs to.
+class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private static final class Entry {
+        final Interpreter owner;
+        final Shape shape;
+        final int offset;
+        final BlinkFunction method;
+        final Shape transition;
+
+        Entry(Interpreter owner, Shape shape, int offset, BlinkFunction method, Shape transition) {
+            this.owner = owner;
+            this.shape = shape;
+            this.offset = offset;
+            this.method = method;
+            this.transition = transition;
+        }
+    }
+
+    private volatile Entry[] entries = new Entry[0];
+
+    Object get(Interpreter owner, BlinkInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.method != null) {
+                    return entry.method.bind(instance);
+                }
+                return instance.fields[entry.offset];
+            }
+        }
+
+        int offset = shape.offset(name.symbol);
+        if (offset != -1) {
+            add(new Entry(owner, shape, offset, null, null));
+            return instance.fields[offset];
+        }
+
+        BlinkFunction method = shape._class.findMethod(name.symbol);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        add(new Entry(owner, shape, -1, method, null));
+        return method.bind(instance);
+    }
+
+    // Like get, but returns the unbound method so the caller can pass the receiver itself.
+    // Returns null when the property is a field.
+    BlinkFunction method(Interpreter owner, BlinkInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) {
+                return entry.method;
+            }
+        }
+
+        if (shape.offset(name.symbol) != -1) {
+            return null;
+        }
+
+        BlinkFunction method = shape._class.findMethod(name.symbol);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        add(new Entry(owner, shape, -1, method, null));
+        return method;
+    }
+
+    void set(Interpreter owner, BlinkInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.transition != null) {
+                    instance.reshape(entry.transition);
+                }
+                instance.fields[entry.offset] = value;
+                return;
+            }
+        }
+
+        int offset = shape.offset(name.symbol);
+        Shape next = null;
+        if (offset == -1) {
+            next = shape.transition(name.symbol);
+            offset = shape.size();
+            instance.reshape(next);
+        }
+        add(new Entry(owner, shape, offset, null, next));
+        instance.fields[offset] = value;
+    }
+
+    // A full cache makes room by replacing an entry another interpreter made: trees outlive the
+    // runs that use them, and a shape from a finished run will never be seen again. A racing add
+    // can drop another thread's entry; that only costs a later miss.
+    private void add(Entry entry) {
+        Entry[] current = entries;
+        if (current.length < MAX_ENTRIES) {
+            Entry[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = entry;
+            entries = grown;
+            return;
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].owner != entry.owner) {
+                Entry[] replaced = current.clone();
+                replaced[i] = entry;
+                entries = replaced;
+                return;
+            }
+        }
+    }
+}
@@ -3,56 +3,55 @@ package blink;
 import java.io.*;
 import java.util.*;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    public Environment globals = new Environment();
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    public final Environment globals = new Environment();
     private Environment environment = globals;
-    private static Object unitialized = new Object();
-    private static Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
-        globals.define("print", new BlinkCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                System.out.print(stringify(args.get(0)));
-                return null;
-            }
-        });
-
-        globals.define("println", new BlinkCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                System.out.println(stringify(args.get(0)));
-                return null;
-            }
-        });
-    }
-
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    static final Object unitialized = new Object();
+    // Value of the last executed return statement, read by the caller once it sees Completion.RETURN.
+    Object returnValue = null;
+    // A call in tail position, deferred until the frame of the function making it is released.
+    // BlinkFunction.call makes it once the body completes with Completion.RETURN.
+    BlinkFunction tailCall = null;
+    BlinkInstance tailReceiver = null;
+    Object[] tailArgs = null;
+    // The files this run has imported, by canonical path and as use statements spelled them.
+    private final Set<String> importedPaths = new HashSet<>();
+    final Blink blink;
+    // Frame sizes of every program this interpreter has run, the script itself and its modules.
+    // Everything else the Resolver worked out is on the nodes.
+    private final Resolution resolution = new Resolution();
+    private final Set<Resolution> adopted = new HashSet<>();
+
+    Interpreter(Blink blink) {
+        this.blink = blink;
+        globals.define(Symbol.of("print"), StandardLibrary.print);
+        globals.define(Symbol.of("println"), StandardLibrary.println);
+    }
+
+    void adopt(Resolution other) {
+        if (adopted.add(other)) {
+            resolution.addAll(other);
+        }
     }
 
     public void interpret(List<Stmt> stmts) {
+        Environment previous = this.environment;
         try {
+            this.environment = new Environment(resolution.scopeSize(stmts), null);
             for (Stmt stmt : stmts) {
-                execute(stmt);
+                if (execute(stmt) != Completion.NORMAL) {
+                    break;
+                }
             }
         } catch (blink.RuntimeError error) {
-            Blink.runtimeError(error);
+            blink.runtimeError(error);
+        } finally {
+            this.environment = previous;
         }
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -60,30 +59,29 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
+        declare(stmt.slot, stmt.boxed);
+        define(stmt.slot, stmt.boxed, stmt.name.symbol, null);
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            declare(stmt.superSlot, stmt.superBoxed);
+            define(stmt.superSlot, stmt.superBoxed, Symbol.SUPER, superclass);
         }
-        Map<String, BlinkFunction> methods = new HashMap<>();
+        Map<Symbol, BlinkFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            BlinkFunction function = new BlinkFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            FunctionType kind = method.name.symbol == Symbol.INIT ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            BlinkFunction function = new BlinkFunction(method, capture(method.upvalues), method.scopeSize,
+                    method.cells, kind);
+            methods.put(method.name.symbol, function);
         }
         BlinkClass _class = new BlinkClass(stmt.name.lexeme, (BlinkClass) superclass, methods);
-        if (superclass != null) {
-            environment = environment.enclosing;
-        }
-        environment.assign(stmt.name, _class);
-        return null;
+        define(stmt.slot, stmt.boxed, stmt.name.symbol, _class);
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int dist = locals.get(expr);
-        BlinkClass superclass = (BlinkClass) environment.getAt(dist, "super");
-        BlinkInstance object = (BlinkInstance) environment.getAt(dist - 1, "this");
-        BlinkFunction method = superclass.findMethod(object, expr.method.lexeme);
+        BlinkClass superclass = (BlinkClass) lookUpVariables(expr.keyword, expr);
+        BlinkInstance object = (BlinkInstance) lookUpVariables(expr.keyword, expr.receiver);
+        BlinkFunction method = superclass.findMethod(object, expr.method.symbol);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
@@ -97,13 +95,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    private Object getProperty(Expr.Get expr, Object object) {
         if (object instanceof BlinkInstance) {
-            return ((BlinkInstance) object).get(expr.name);
+            return expr.cache.get(this, (BlinkInstance) object, expr.name);
         }
 
         if (object instanceof NativeInstance) {
-            Object result = ((NativeInstance) object).findMethod(expr.name.lexeme);
+            Object result = ((NativeInstance) object).findMethod(expr.name.symbol);
             return result;
         }
 
@@ -117,16 +118,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.name, "Not an instance of a class.");
         }
         Object value = evaluate(expr.value);
-        ((BlinkInstance) object).set(expr.name, value);
+        expr.cache.set(this, (BlinkInstance) object, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitArrayExpr(Expr.Array expr) {
-        List<Object> values = new ArrayList<>();
+        List<Object> values = new BlinkArray(expr.values == null ? 0 : expr.values.size());
         if (expr.values != null) {
             for (Expr value : expr.values) {
-                values.add(evaluate(value));
+                values.add(Rope.flatten(evaluate(value)));
             }
         }
         return values;
@@ -134,13 +135,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSubscriptExpr(Expr.Subscript expr) {
-        List<Object> list = null;
+        List<Object> list = subscripted(expr);
+        return list.get(subscriptIndex(expr, list));
+    }
+
+    private List<Object> subscripted(Expr.Subscript expr) {
         try {
-            list = (List<Object>) evaluate(expr.object);
+            return (List<Object>) evaluate(expr.object);
         } catch (Exception e) {
             throw new RuntimeError(expr.closeBracket, "Only arrays can be subscripted");
         }
+    }
 
+    private int subscriptIndex(Expr.Subscript expr, List<Object> list) {
         Object indexObject = evaluate(expr.index);
         if (!(indexObject instanceof Double)) {
             throw new RuntimeError(expr.closeBracket, "Only numbers can be used to index an array.");
@@ -150,97 +157,145 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (index >= list.size()) {
             throw new RuntimeError(expr.closeBracket, "Array index out of range.");
         }
-        return list.get(index);
+        return index;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new Jump(JumpType.BREAK);
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new Jump(JumpType.CONTINUE);
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visitExprStmt(Stmt.Expression stmt) {
+    public Completion visitExprStmt(Stmt.Expression stmt) {
         evaluate(stmt.expr);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitLetStmt(Stmt.Let stmt) {
-        Object value = unitialized;
-        if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
+    public Completion visitLetStmt(Stmt.Let stmt) {
+        int slot = stmt.slot;
+        if (slot == -1) {
+            Object value = stmt.initializer != null ? evaluate(stmt.initializer) : unitialized;
+            globals.define(stmt.name, value);
+            return Completion.NORMAL;
+        }
+        // A fresh cell for every execution, so closures made in earlier iterations of a loop
+        // keep their own variable.
+        Cell cell = null;
+        if (stmt.boxed) {
+            cell = new Cell(unitialized);
+            environment.define(slot, cell);
+        }
+        Object value = stmt.initializer != null ? evaluate(stmt.initializer) : unitialized;
+        if (cell != null) {
+            cell.value = value;
+        } else {
+            environment.define(slot, value);
+        }
+        return Completion.NORMAL;
+    }
+
+    // Gives a captured local its cell before its value exists, so that closures created while
+    // computing the value share it.
+    private void declare(int slot, boolean boxed) {
+        if (slot != -1 && boxed) {
+            environment.define(slot, new Cell(null));
         }
-        environment.define(stmt.name, stmt.name.lexeme, value);
-        return null;
     }
 
+    private void define(int slot, boolean boxed, Symbol name, Object value) {
+        if (slot == -1) {
+            globals.define(name, value);
+        } else if (boxed) {
+            ((Cell) environment.slots[slot]).value = value;
+        } else {
+            environment.define(slot, value);
+        }
+    }
+
+    // The cells a closure captures, taken from the frame it is created in.
+    private Cell[] capture(int[] upvalues) {
+        if (upvalues.length == 0) {
+            return null;
+        }
+        Cell[] cells = new Cell[upvalues.length];
+        for (int i = 0; i < upvalues.length; i++) {
+            int upvalue = upvalues[i];
+            cells[i] = upvalue >= 0 ? (Cell) environment.slots[upvalue] : environment.upvalues[~upvalue];
+        }
+        return cells;
+    }
+
+    // Blocks share the frame of their function; the Resolver gave their locals slots of their own.
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeAll(stmt.statements);
     }
 
-    public void executeBlock(List<Stmt> stmts, Environment env) {
+    // A runtime error skips restoring the environment; interpret() resets it when it catches one.
+    public Completion executeBlock(List<Stmt> stmts, Environment env) {
         Environment previous = this.environment;
-        try {
-            this.environment = env;
-            for (Stmt stmt : stmts) {
-                execute(stmt);
+        this.environment = env;
+        Completion completion = executeAll(stmts);
+        this.environment = previous;
+        return completion;
+    }
+
+    private Completion executeAll(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            Completion completion = execute(stmt);
+            if (completion != Completion.NORMAL) {
+                return completion;
             }
-        } finally {
-            this.environment = previous;
         }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.cond))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.cond))) {
-            try {
-                execute(stmt.body);
-            } catch (Jump jump) {
-                if (jump.type == JumpType.BREAK) {
-                    break;
-                } else {
-                    continue;
-                }
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) {
+                break;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitDoWhileStmt(Stmt.DoWhile stmt) {
+    public Completion visitDoWhileStmt(Stmt.DoWhile stmt) {
         do {
-            try {
-                execute(stmt.body);
-            } catch (Jump jump) {
-                if (jump.type == JumpType.BREAK) {
-                    break;
-                } else {
-                    continue;
-                }
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) {
+                break;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
             }
         } while (isTruthy(evaluate(stmt.cond)));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForStmt(Stmt.For stmt) {
+    public Completion visitForStmt(Stmt.For stmt) {
         if (stmt.init != null) {
             evaluate(stmt.init);
         }
@@ -250,65 +305,100 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     break;
                 }
             }
-            try {
-                execute(stmt.body);
-            } catch (Jump jump) {
-                if (jump.type == JumpType.BREAK) {
-                    break;
-                } else {
-                    if (stmt.incr != null) {
-                        evaluate(stmt.incr);
-                    }
-                    continue;
-                }
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) {
+                break;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
             }
             if (stmt.incr != null) {
                 evaluate(stmt.incr);
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        BlinkFunction func = new BlinkFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, func);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.slot, stmt.boxed);
+        BlinkFunction func = new BlinkFunction(stmt, capture(stmt.upvalues), stmt.scopeSize, stmt.cells,
+                FunctionType.FUNCTION);
+        define(stmt.slot, stmt.boxed, stmt.name.symbol, func);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.expr != null) {
+        if (stmt.tail) {
+            value = tailCall((Expr.Call) stmt.expr);
+        } else if (stmt.expr != null) {
             value = evaluate(stmt.expr);
         }
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // Evaluates the callee and arguments of a call in tail position, but leaves calling a Blink
+    // function to the trampoline in BlinkFunction.call. Anything else is called right away.
+    private Object tailCall(Expr.Call expr) {
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (object instanceof BlinkInstance) {
+                BlinkInstance instance = (BlinkInstance) object;
+                BlinkFunction method = get.cache.method(this, instance, get.name);
+                if (method != null) {
+                    return defer(method, instance, evaluateArgs(expr, method));
+                }
+            }
+            callee = getProperty(get, object);
+        } else {
+            callee = evaluate(expr.callee);
+        }
+        if (callee instanceof BlinkFunction) {
+            BlinkFunction function = (BlinkFunction) callee;
+            return defer(function, function.receiver, evaluateArgs(expr, function));
+        }
+        return call(expr, callee);
+    }
+
+    private Object defer(BlinkFunction function, BlinkInstance receiver, Object[] args) {
+        tailCall = function;
+        tailReceiver = receiver;
+        tailArgs = args;
+        return null;
     }
 
     @Override
-    public Void visitSwitchStmt(Stmt.Switch stmt) {
-        Object cond = evaluate(stmt.cond);
-        int index = stmt.exprs.indexOf(cond);
-        if (index == -1) {
-            index = stmt.exprs.indexOf("default");
-        }
+    public Completion visitSwitchStmt(Stmt.Switch stmt) {
+        Object cond = Rope.flatten(evaluate(stmt.cond));
+        CaseTable table = stmt.table;
+        if (table == null) {
+            table = new CaseTable(stmt.exprs);
+            stmt.table = table;
+        }
+        int index = table.index(cond);
         if (index != -1) {
-            try {
-                for (int i = index; i < stmt.branches.size(); i++) {
-                    execute(stmt.branches.get(i));
+            for (int i = index; i < stmt.branches.size(); i++) {
+                Completion completion = execute(stmt.branches.get(i));
+                // Both break and continue leave the switch.
+                if (completion == Completion.RETURN) {
+                    return completion;
                 }
-            } catch (Jump jump) {
-                if (jump.type == JumpType.BREAK) {
-                    return null;
+                if (completion != Completion.NORMAL) {
+                    break;
                 }
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitUseStmt(Stmt.Use stmt) {
-        Object module = evaluate(stmt.module);
+    public Completion visitUseStmt(Stmt.Use stmt) {
+        Object module = Rope.flatten(evaluate(stmt.module));
         if (!(module instanceof String)) {
             throw new RuntimeError(stmt.keyword, "Module name must be a string.");
         }
@@ -317,52 +407,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         if (moduleName.startsWith("std")) {
             String library = moduleName.split("::")[1];
-            // Encryption stdlib
-            switch (library) {
-                case "Crypto":
-                    globals.define("Crypto", StandardLibrary.Crypto);
-                    return null;
-                // Time stdlib
-                case "Time":
-                    globals.define("Time", StandardLibrary.Time);
-                    return null;
-                // File stdlib
-                case "File":
-                    globals.define("File", StandardLibrary.File);
-                    return null;
-                // Math stdlib
-                case "Math":
-                    globals.define("Math", StandardLibrary.Math);
-                    return null;
-                // Utils stdlib
-                case "Utils":
-                    globals.define("Utils", StandardLibrary.Utils);
-                    return null;
-                // Import all existing stdlibs
-                case "*":
-                    StandardLibrary.importAll(globals);
-                    return null;
-
-                default:
-                    throw new RuntimeError(stmt.keyword, "'" + moduleName + "' is not a standard library");
+            // Import all existing stdlibs
+            if (library.equals("*")) {
+                StandardLibrary.importAll(globals);
+                return Completion.NORMAL;
             }
-        }
-
-        String source = "";
 
-        try {
-            BufferedReader br = new BufferedReader(new FileReader((String) module));
-            String currentLine;
-            while ((currentLine = br.readLine()) != null) {
-                source += currentLine + "\n";
+            NativeInstance instance = StandardLibrary.libraries.get(library);
+            if (instance == null) {
+                throw new RuntimeError(stmt.keyword, "'" + moduleName + "' is not a standard library");
             }
-        } catch (IOException e) {
-            throw new RuntimeError(stmt.keyword, "Couldn't import module '" + module + "'.");
+            globals.define(Symbol.of(library), instance);
+            return Completion.NORMAL;
         }
 
-        Blink.run(source);
+        // A module runs once per interpreter, however many times it is used, and is only read and
+        // checked against the cache the first time, so it doesn't run again if it changes.
+        if (importedPaths.contains(moduleName)) {
+            return Completion.NORMAL;
+        }
+        File file = ModuleCache.canonical(stmt.keyword, moduleName);
+        if (importedPaths.contains(file.getPath())) {
+            importedPaths.add(moduleName);
+            return Completion.NORMAL;
+        }
+        Module imported = ModuleCache.get(blink, stmt.keyword, moduleName, file);
+        if (imported != null) {
+            importedPaths.add(file.getPath());
+            importedPaths.add(moduleName);
+            adopt(imported.resolution);
+            interpret(imported.statements);
+        }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -383,33 +460,179 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        return new BlinkFunction(expr, environment, false);
+        return new BlinkFunction(expr, capture(expr.upvalues), expr.scopeSize, expr.cells);
     }
 
     @Override
     public Object visitBinary(Expr.Binary expr) {
+        if (expr.numeric) {
+            switch (expr.op.type) {
+                case PLUS:
+                case MINUS:
+                case MUL:
+                case DIV:
+                case MOD:
+                case EXP:
+                    try {
+                        return evaluateDouble(expr);
+                    } catch (UnexpectedValue e) {
+                        return e.value;
+                    }
+                case GREATER:
+                case GREATER_EQUALS:
+                case LESS:
+                case LESS_EQUALS:
+                    return compareDoubles(expr);
+            }
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binaryOperation(expr.op, left, right);
+    }
+
+    private Object compareDoubles(Expr.Binary expr) {
+        double left;
+        try {
+            left = evaluateDouble(expr.left);
+        } catch (UnexpectedValue e) {
+            expr.numeric = false;
+            return binaryOperation(expr.op, e.value, evaluate(expr.right));
+        }
+        double right;
+        try {
+            right = evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.numeric = false;
+            return binaryOperation(expr.op, left, e.value);
+        }
+        switch (expr.op.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUALS:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    // Evaluates an operand of an arithmetic node without boxing intermediate results. Nested
+    // arithmetic stays unboxed; anything else is evaluated normally and unboxed if it is a number.
+    private double evaluateDouble(Expr expr) throws UnexpectedValue {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.numeric && isArithmetic(binary.op)) {
+                return arithmetic(binary);
+            }
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).val;
+            if (value instanceof Double) {
+                return (double) value;
+            }
+            throw new UnexpectedValue(value);
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Subscript) {
+            // Numeric arrays hand their elements over without boxing them.
+            Expr.Subscript subscript = (Expr.Subscript) expr;
+            List<Object> list = subscripted(subscript);
+            int index = subscriptIndex(subscript, list);
+            if (list instanceof BlinkArray && ((BlinkArray) list).isNumeric()) {
+                return ((BlinkArray) list).getDouble(index);
+            }
+            return expectDouble(list.get(index));
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.numeric && unary.op.type == TokenType.MINUS) {
+                try {
+                    return -evaluateDouble(unary.right);
+                } catch (UnexpectedValue e) {
+                    unary.numeric = false;
+                    return expectDouble(unaryOperation(unary.op, e.value));
+                }
+            }
+        }
+        return expectDouble(evaluate(expr));
+    }
 
+    private double arithmetic(Expr.Binary expr) throws UnexpectedValue {
+        double left;
+        try {
+            left = evaluateDouble(expr.left);
+        } catch (UnexpectedValue e) {
+            expr.numeric = false;
+            return expectDouble(binaryOperation(expr.op, e.value, evaluate(expr.right)));
+        }
+        double right;
+        try {
+            right = evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.numeric = false;
+            return expectDouble(binaryOperation(expr.op, left, e.value));
+        }
         switch (expr.op.type) {
             case PLUS:
-                if (left instanceof String && right instanceof String) {
-                    return stringify(left) + stringify(right);
+                return left + right;
+            case MINUS:
+                return left - right;
+            case MUL:
+                return left * right;
+            case DIV:
+                if (right == 0) {
+                    throw new RuntimeError(expr.op, "Cannot divide by zero.");
+                }
+                return left / right;
+            case MOD:
+                if (right == 0) {
+                    throw new RuntimeError(expr.op, "Cannot divide by zero.");
+                }
+                return left % right;
+            default:
+                return Math.pow(left, right);
+        }
+    }
+
+    private static boolean isArithmetic(Token op) {
+        switch (op.type) {
+            case PLUS:
+            case MINUS:
+            case MUL:
+            case DIV:
+            case MOD:
+            case EXP:
+                return true;
+        }
+        return false;
+    }
+
+    private static double expectDouble(Object value) throws UnexpectedValue {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new UnexpectedValue(value);
+    }
+
+    static Object binaryOperation(Token op, Object left, Object right) {
+        switch (op.type) {
+            case PLUS:
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concat(left, right);
                 }
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
-                if (left instanceof  String && right instanceof Double) {
-                    return (stringify(left)) + (stringify(right));
+                if (Rope.isString(left) && right instanceof Double) {
+                    return Rope.concat(left, stringify(right));
                 }
-                if (left instanceof Double && right instanceof String) {
-                    return (stringify(left)) + (stringify(right));
+                if (left instanceof Double && Rope.isString(right)) {
+                    return Rope.concat(stringify(left), right);
                 }
                 if (left instanceof List) {
-                    ((List)(left)).add(right);
+                    ((List)(left)).add(Rope.flatten(right));
                     return left;
                 }
-                throw new RuntimeError(expr.op, "Addition operation not supported for operands.");
+                throw new RuntimeError(op, "Addition operation not supported for operands.");
             case MINUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left - (double) right;
@@ -417,14 +640,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
                 if (left instanceof List && right instanceof Double) {
                     List<Object> list = (List) left;
-                    List<Object> newList = new ArrayList<>();
                     int newSize = list.size() - ((Double) right).intValue();
 
                     if (newSize < 0) {
-                        throw new RuntimeError(expr.op, "Cannot remove " + ((Double) right).intValue() +
+                        throw new RuntimeError(op, "Cannot remove " + ((Double) right).intValue() +
                                 " elements from an array with " + list.size() + " elements.");
                     }
 
+                    if (list instanceof BlinkArray && newSize <= list.size()) {
+                        return ((BlinkArray) list).truncate(newSize);
+                    }
+
+                    List<Object> newList = new BlinkArray();
                     for (int i = 0; i < newSize; i++) {
                         newList.add(list.get(i));
                     }
@@ -432,57 +659,57 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return newList;
                 }
 
-                throw new RuntimeError(expr.op, "Subtraction operation not supported for operands.");
+                throw new RuntimeError(op, "Subtraction operation not supported for operands.");
             case MUL:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (double) left * (double) right;
             case DIV:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 if ((double) right == 0) {
-                    throw new RuntimeError(expr.op, "Cannot divide by zero.");
+                    throw new RuntimeError(op, "Cannot divide by zero.");
                 }
                 return (double) left / (double) right;
             case MOD:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 if ((double) right == 0) {
-                    throw new RuntimeError(expr.op, "Cannot divide by zero.");
+                    throw new RuntimeError(op, "Cannot divide by zero.");
                 }
                 return (double) left % (double) right;
             case EXP:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return Math.pow((double) left, (double) right);
             case GREATER:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left > (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return left.toString().compareTo((String) right) > 0;
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return left.toString().compareTo(right.toString()) > 0;
                 }
-                throw new RuntimeError(expr.op, "Comparison not supported for operands.");
+                throw new RuntimeError(op, "Comparison not supported for operands.");
             case GREATER_EQUALS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left >= (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return left.toString().compareTo((String) right) >= 0;
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return left.toString().compareTo(right.toString()) >= 0;
                 }
-                throw new RuntimeError(expr.op, "Comparison not supported for operands.");
+                throw new RuntimeError(op, "Comparison not supported for operands.");
             case LESS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left < (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return left.toString().compareTo((String) right) < 0;
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return left.toString().compareTo(right.toString()) < 0;
                 }
-                throw new RuntimeError(expr.op, "Comparison not supported for operands.");
+                throw new RuntimeError(op, "Comparison not supported for operands.");
             case LESS_EQUALS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left <= (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return left.toString().compareTo((String) right) <= 0;
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return left.toString().compareTo(right.toString()) <= 0;
                 }
-                throw new RuntimeError(expr.op, "Comparison not supported for operands.");
+                throw new RuntimeError(op, "Comparison not supported for operands.");
             case EQUALS:
                 return isEqual(left, right);
             case NOT_EQUALS:
@@ -494,7 +721,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     int result = l.intValue() & r.intValue();
                     return (double) result;
                 }
-                throw new RuntimeError(expr.op, "Operand must be integers");
+                throw new RuntimeError(op, "Operand must be integers");
             case BIT_XOR:
                 if (isInteger(left) && isInteger(right)) {
                     Double l = (Double) left;
@@ -502,7 +729,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     int result = l.intValue() ^ r.intValue();
                     return (double) result;
                 }
-                throw new RuntimeError(expr.op, "Operand must be integers");
+                throw new RuntimeError(op, "Operand must be integers");
             case BIT_OR:
                 if (isInteger(left) && isInteger(right)) {
                     Double l = (Double) left;
@@ -510,7 +737,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     int result = l.intValue() | r.intValue();
                     return (double) result;
                 }
-                throw new RuntimeError(expr.op, "Operand must be integers");
+                throw new RuntimeError(op, "Operand must be integers");
             case COMMA:
                 return right;
         }
@@ -520,9 +747,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnary(Expr.Unary expr) {
         Object right = evaluate(expr.right);
-        switch (expr.op.type) {
+        return unaryOperation(expr.op, right);
+    }
+
+    static Object unaryOperation(Token op, Object right) {
+        switch (op.type) {
             case MINUS:
-                checkNumber(expr.op, right);
+                checkNumber(op, right);
                 return -(double) right;
             case NOT:
                 return !isTruthy(right);
@@ -531,7 +762,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     Double val = (Double) right;
                     return (double) (~val.intValue());
                 }
-                throw new RuntimeError(expr.op, "Operand must be an integer");
+                throw new RuntimeError(op, "Operand must be an integer");
         }
         return null;
     }
@@ -555,31 +786,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value;
     }
 
-    private Object lookUpVariables(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name);
-        } else {
-            return globals.get(name);
+    private Object lookUpVariables(Token name, Expr.Local expr) {
+        switch (expr.access) {
+            case Expr.LOCAL:
+                return environment.slots[expr.slot];
+            case Expr.CELL:
+                return ((Cell) environment.slots[expr.slot]).value;
+            case Expr.UPVALUE:
+                return environment.upvalues[expr.slot].value;
+            default:
+                return globals.cell(name).value;
         }
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            return invoke(expr, (Expr.Get) expr.callee);
+        }
         Object callee = evaluate(expr.callee);
-        List<Object> arguments = new ArrayList<>();
+        return call(expr, callee);
+    }
+
+    // obj.method(args) calls the method with obj as its receiver instead of binding it first.
+    private Object invoke(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object);
+        if (object instanceof BlinkInstance) {
+            BlinkInstance instance = (BlinkInstance) object;
+            BlinkFunction method = get.cache.method(this, instance, get.name);
+            if (method != null) {
+                Object[] arguments = evaluateArgs(expr, method);
+                return method.call(this, instance, arguments);
+            }
+        }
+        return call(expr, getProperty(get, object));
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
         if (!(callee instanceof BlinkCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
-        for (Expr arg : expr.args) {
-            arguments.add(evaluate(arg));
-        }
         BlinkCallable function = (BlinkCallable) callee;
-        if (arguments.size() != function.arity()) {
+        return function.call(this, evaluateArgs(expr, function));
+    }
+
+    private Object[] evaluateArgs(Expr.Call expr, BlinkCallable function) {
+        List<Expr> args = expr.args;
+        Object[] arguments = new Object[args.size()];
+        // Native functions expect plain strings.
+        boolean flatten = !(function instanceof BlinkFunction || function instanceof BlinkClass);
+        for (int i = 0; i < arguments.length; i++) {
+            Object value = evaluate(args.get(i));
+            arguments[i] = flatten ? Rope.flatten(value) : value;
+        }
+        if (arguments.length != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got "
-                    + arguments.size() + ".");
+                    + arguments.length + ".");
         }
-        return function.call(this, arguments);
+        return arguments;
     }
 
     private Object evaluate(Expr expr) {
@@ -589,7 +853,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        switch (expr.access) {
+            case Expr.LOCAL:
+                environment.slots[expr.slot] = value;
+                break;
+            case Expr.CELL:
+                ((Cell) environment.slots[expr.slot]).value = value;
+                break;
+            case Expr.UPVALUE:
+                environment.upvalues[expr.slot].value = value;
+                break;
+            default:
+                globals.cell(expr.name).value = value;
+        }
         return value;
     }
 
@@ -602,11 +878,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -616,21 +892,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
+        a = Rope.flatten(a);
+        b = Rope.flatten(b);
         if (a == null) {
             return b == null;
         }
         return a.equals(b);
     }
 
-    private void checkNumber(Token op, Object object) {
+    private static void checkNumber(Token op, Object object) {
         if (object instanceof Double) {
             return;
         }
         throw new RuntimeError(op, "Operand must be a number");
     }
 
-    private boolean isInteger(Object object) {
+    private static boolean isInteger(Object object) {
         if (object instanceof Double) {
             double val = (double) object;
             return !Double.isInfinite(val) && (Math.floor(val) == val);
@@ -638,14 +916,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return false;
     }
 
-    private void checkNumbers(Token op, Object a, Object b) {
+    private static void checkNumbers(Token op, Object a, Object b) {
         if (a instanceof Double && b instanceof Double) {
             return;
         }
         throw new RuntimeError(op, "Operand must be numbers");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) {
             return "null";
         }
@@ -672,4 +950,4 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
         return object.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package blink;
+
+import java.util.*;
+
+// The body of a function the Parser only skimmed, parsed, optimized and resolved when the
+// function is first called. Skimmed in this run, it is a range of the module's tokens, from the
+// one after the opening brace to the closing one. Read back from the AST cache, it is the source
+// text after the opening brace, scanned from the brace's position. Module trees are shared by
+// every run in the process and the bodies of a module share its token stream, so the work is
+// done once, under the stream's lock.
+class LazyBody {
+    private TokenStream tokens;
+    private int start, end;
+    private final String text;
+    private final int line, col;
+    private final Object lock;
+    // Where the function was declared, recorded by the Resolver so the body is resolved as it
+    // would have been there: a method's superclass is its only variable in scope.
+    FunctionType type = FunctionType.FUNCTION;
+    ClassType classType = ClassType.NONE;
+    int superSlot = -1;
+    private boolean parsed = false;
+    private List<Stmt> body;
+    private Map<Object, List<Object>> pruned;
+    private Resolution resolution;
+    // The errors in the body, found by whichever run reached it first. Each later run that
+    // reaches it is given them too, once, so it reports them where they are.
+    private final List<Blink.Diagnostic> errors = new ArrayList<>();
+    private final Map<Blink, Integer> reported = new WeakHashMap<>();
+
+    LazyBody(TokenStream tokens, int start, int end) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.text = null;
+        this.line = this.col = 0;
+        this.lock = tokens;
+    }
+
+    LazyBody(String text, int line, int col) {
+        this.text = text;
+        this.line = line;
+        this.col = col;
+        this.lock = this;
+    }
+
+    boolean mentions(TokenType type) {
+        for (int i = start; i < end; i++) {
+            if (tokens.type(i) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String text() {
+        return text != null ? text : tokens.source(start - 1, end);
+    }
+
+    int line() {
+        return text != null ? line : tokens.line(start - 1);
+    }
+
+    int col() {
+        return text != null ? col : tokens.col(start - 1);
+    }
+
+    // Returns null if the body has errors, which are reported to blink.
+    List<Stmt> parse(Blink blink) {
+        synchronized (lock) {
+            if (!parsed) {
+                parsed = true;
+                blink.record(errors);
+                try {
+                    if (tokens == null) {
+                        Tokenizer tokenizer = new Tokenizer(blink, text, line, col);
+                        tokenizer.scanTokens();
+                        tokens = tokenizer.getTokens();
+                        start = 0;
+                        end = tokens.size() - 2;
+                    }
+                    List<Stmt> statements = new Parser(blink, tokens).body(start, end);
+                    if (statements != null && errors.isEmpty()) {
+                        Optimizer optimizer = new Optimizer();
+                        body = optimizer.optimize(statements);
+                        pruned = optimizer.pruned();
+                    }
+                } finally {
+                    blink.record(null);
+                }
+                reported.put(blink, errors.size());
+            }
+            report(blink);
+            return body;
+        }
+    }
+
+    // Parses and resolves the body into function, the declaration it belongs to. Returns what
+    // the Resolver recorded for the function and everything in it, or null if it has errors.
+    Resolution resolve(Blink blink, Object function) {
+        synchronized (lock) {
+            if (resolution == null && parse(blink) != null) {
+                Resolution resolved = new Resolution();
+                blink.record(errors);
+                try {
+                    new Resolver(blink, resolved, pruned).resolve(function, body, this);
+                } finally {
+                    blink.record(null);
+                }
+                reported.put(blink, errors.size());
+                pruned = null;
+                if (errors.isEmpty()) {
+                    resolution = resolved;
+                } else {
+                    body = null;
+                }
+            }
+            report(blink);
+            return resolution;
+        }
+    }
+
+    // Gives blink the errors it has not been told about yet.
+    private void report(Blink blink) {
+        Integer told = reported.get(blink);
+        for (int i = told == null ? 0 : told; i < errors.size(); i++) {
+            blink.report(errors.get(i));
+        }
+        reported.put(blink, errors.size());
+    }
+
+    List<Stmt> body() {
+        return body;
+    }
+}
@@ -0,0 +1,20 @@
+package blink;
+
+import java.util.*;
+
+class Module {
+    final String path;
+    // SHA-256 of the source the module was loaded from.
+    final String hash;
+    final List<Stmt> statements;
+    final Resolution resolution;
+    // Compiled lazily the first time a VM imports the module.
+    volatile VMFunction script = null;
+
+    Module(String path, String hash, List<Stmt> statements, Resolution resolution) {
+        this.path = path;
+        this.hash = hash;
+        this.statements = statements;
+        this.resolution = resolution;
+    }
+}
@@ -0,0 +1,165 @@
+package blink;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Modules imported with `use`, parsed and resolved once per process. Entries are keyed by
+// canonical path and are reloaded when the file's content no longer hashes to what was loaded;
+// a modification time and size can both survive an edit made in quick succession. The cache
+// is shared by every Blink instance in the process; once published, entries only change as the
+// function bodies the Parser skimmed in them are parsed, see LazyBody.
+class ModuleCache {
+    private static final Map<String, Module> modules = new ConcurrentHashMap<>();
+
+    // The file a use statement names, which is what a run imports once however it is spelled.
+    static File canonical(Token keyword, String path) {
+        try {
+            return new File(path).getCanonicalFile();
+        } catch (IOException e) {
+            throw new RuntimeError(keyword, "Couldn't import module '" + path + "'.");
+        }
+    }
+
+    // Reads and hashes the file, so a run should only call this the first time it imports it.
+    static Module get(Blink blink, Token keyword, String path, File file) {
+        String canonical = file.getPath();
+        CharSequence source = read(keyword, path, file);
+        String hash = AstCache.hash(source);
+        Module module = modules.get(canonical);
+        if (module != null && module.hash.equals(hash)) {
+            return module;
+        }
+
+        Resolution resolution = new Resolution();
+        List<Stmt> statements = blink.load(source, file.toPath(), hash, resolution, blink.parsesLazily());
+        if (statements == null) {
+            return null;
+        }
+        module = new Module(canonical, hash, statements, resolution);
+        modules.put(canonical, module);
+        return module;
+    }
+
+    // Loads every module a program reaches through `use` statements with a literal path, in
+    // parallel, before the program runs. Running it then finds them cached; each module is still
+    // imported when its use statement executes, in program order. Computed paths and uses inside
+    // lambdas are left to load when they run.
+    static void preload(List<Stmt> statements, boolean lazy) {
+        List<Preload> tasks = preloads(statements, ConcurrentHashMap.newKeySet(), lazy);
+        if (!tasks.isEmpty()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+
+    private static List<Preload> preloads(List<Stmt> statements, Set<String> seen, boolean lazy) {
+        List<String> paths = new ArrayList<>();
+        uses(statements, paths);
+        List<Preload> tasks = new ArrayList<>();
+        for (String path : paths) {
+            try {
+                File file = new File(path).getCanonicalFile();
+                if (seen.add(file.getPath())) {
+                    tasks.add(new Preload(file, seen, lazy));
+                }
+            } catch (IOException e) {
+                // Reported by the use statement, if it ever runs.
+            }
+        }
+        return tasks;
+    }
+
+    private static void uses(List<? extends Stmt> statements, List<String> paths) {
+        for (Stmt stmt : statements) {
+            uses(stmt, paths);
+        }
+    }
+
+    private static void uses(Stmt stmt, List<String> paths) {
+        if (stmt instanceof Stmt.Use) {
+            Expr module = ((Stmt.Use) stmt).module;
+            if (module instanceof Expr.Literal && ((Expr.Literal) module).val instanceof String) {
+                String path = (String) ((Expr.Literal) module).val;
+                if (!path.startsWith("std")) {
+                    paths.add(path);
+                }
+            }
+        } else if (stmt instanceof Stmt.Block) {
+            uses(((Stmt.Block) stmt).statements, paths);
+        } else if (stmt instanceof Stmt.If) {
+            uses(((Stmt.If) stmt).thenBranch, paths);
+            if (((Stmt.If) stmt).elseBranch != null) {
+                uses(((Stmt.If) stmt).elseBranch, paths);
+            }
+        } else if (stmt instanceof Stmt.While) {
+            uses(((Stmt.While) stmt).body, paths);
+        } else if (stmt instanceof Stmt.DoWhile) {
+            uses(((Stmt.DoWhile) stmt).body, paths);
+        } else if (stmt instanceof Stmt.For) {
+            uses(((Stmt.For) stmt).body, paths);
+        } else if (stmt instanceof Stmt.Function) {
+            // Skimmed bodies are left alone, like lambdas, until they are called.
+            if (((Stmt.Function) stmt).body != null) {
+                uses(((Stmt.Function) stmt).body, paths);
+            }
+        } else if (stmt instanceof Stmt.Class) {
+            uses(((Stmt.Class) stmt).methods, paths);
+        } else if (stmt instanceof Stmt.Switch) {
+            uses(((Stmt.Switch) stmt).branches, paths);
+        }
+    }
+
+    // Loads one module ahead of its use, then the modules it uses in turn. A module with errors
+    // is not cached, so its use statement loads it again and reports them as it always has.
+    private static final class Preload extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final Set<String> seen;
+        private final boolean lazy;
+
+        Preload(File file, Set<String> seen, boolean lazy) {
+            this.file = file;
+            this.seen = seen;
+            this.lazy = lazy;
+        }
+
+        @Override
+        protected void compute() {
+            String canonical = file.getPath();
+            CharSequence source;
+            try {
+                source = Blink.readSource(file.toPath());
+            } catch (IOException e) {
+                return;
+            }
+            String hash = AstCache.hash(source);
+            Module module = modules.get(canonical);
+            if (module == null || !module.hash.equals(hash)) {
+                Blink blink = Blink.quiet();
+                Resolution resolution = new Resolution();
+                List<Stmt> statements;
+                try {
+                    statements = blink.load(source, file.toPath(), hash, resolution, lazy);
+                } catch (RuntimeException e) {
+                    // Whatever the front end throws, the use statement throws again when it runs.
+                    return;
+                }
+                if (statements == null || blink.errorCount() > 0) {
+                    return;
+                }
+                module = new Module(canonical, hash, statements, resolution);
+                modules.put(canonical, module);
+            }
+            invokeAll(preloads(module.statements, seen, lazy));
+        }
+    }
+
+    private static CharSequence read(Token keyword, String path, File file) {
+        try {
+            return Blink.readSource(file.toPath());
+        } catch (IOException e) {
+            throw new RuntimeError(keyword, "Couldn't import module '" + path + "'.");
+        }
+    }
+}
@@ -4,18 +4,17 @@ import java.util.*;
 
 public class NativeInstance implements BlinkCallable{
     final String name;
-    private final Map<String, BlinkCallable> methods;
+    private final Map<Symbol, BlinkCallable> methods = new HashMap<>();
 
     NativeInstance(String name, Map<String, BlinkCallable> methods) {
         this.name = name;
-        this.methods = methods;
+        for (Map.Entry<String, BlinkCallable> method : methods.entrySet()) {
+            this.methods.put(Symbol.of(method.getKey()), method.getValue());
+        }
     }
 
-    BlinkCallable findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        return null;
+    BlinkCallable findMethod(Symbol name) {
+        return methods.get(name);
     }
 
     @Override
@@ -24,8 +23,8 @@ public class NativeInstance implements BlinkCallable{
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> args) {
-        BlinkCallable initializer = methods.get("init");
+    public Object call(Interpreter interpreter, Object[] args) {
+        BlinkCallable initializer = methods.get(Symbol.INIT);
         if (initializer != null) {
             initializer.call(interpreter, args);
         }
@@ -34,7 +33,7 @@ public class NativeInstance implements BlinkCallable{
 
     @Override
     public int arity() {
-        BlinkCallable initializer = methods.get("init");
+        BlinkCallable initializer = methods.get(Symbol.INIT);
         if (initializer == null) {
             return 0;
         }
@@ -0,0 +1,79 @@
+package blink;
+
+final class OpCode {
+    // Constants and literals
+    static final byte CONSTANT = 0;
+    static final byte NULL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte UNINITIALIZED = 4;
+
+    // Stack manipulation
+    static final byte POP = 5;
+    static final byte UNWIND = 6;
+
+    // Variables
+    static final byte GET_LOCAL = 7;
+    static final byte SET_LOCAL = 8;
+    static final byte GET_UPVALUE = 9;
+    static final byte SET_UPVALUE = 10;
+    static final byte GET_GLOBAL = 11;
+    static final byte SET_GLOBAL = 12;
+    static final byte DEFINE_GLOBAL = 13;
+    static final byte LET_GLOBAL = 14;
+
+    // Properties
+    static final byte GET_PROPERTY = 15;
+    static final byte SET_PROPERTY = 16;
+    static final byte GET_SUPER = 17;
+
+    // Arithmetic
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte MODULO = 22;
+    static final byte POWER = 23;
+    static final byte NEGATE = 24;
+
+    // Comparison and logical
+    static final byte EQUAL = 25;
+    static final byte NOT_EQUAL = 26;
+    static final byte GREATER = 27;
+    static final byte GREATER_EQUAL = 28;
+    static final byte LESS = 29;
+    static final byte LESS_EQUAL = 30;
+    static final byte NOT = 31;
+    static final byte TRUTHY = 32;
+
+    // Bitwise
+    static final byte BIT_AND = 33;
+    static final byte BIT_OR = 34;
+    static final byte BIT_XOR = 35;
+    static final byte BIT_NOT = 36;
+
+    // Control flow
+    static final byte JUMP = 37;
+    static final byte JUMP_IF_FALSE = 38;
+    static final byte LOOP = 39;
+    static final byte SWITCH = 40;
+
+    // Functions and classes
+    static final byte CALL = 41;
+    static final byte INVOKE = 42;
+    static final byte CLOSURE = 43;
+    static final byte RETURN = 44;
+    static final byte CLASS = 45;
+    static final byte INHERIT = 46;
+    static final byte METHOD = 47;
+
+    // Arrays
+    static final byte ARRAY = 48;
+    static final byte SUBSCRIPT = 49;
+
+    // Modules
+    static final byte USE = 50;
+
+    private OpCode() {
+    }
+}
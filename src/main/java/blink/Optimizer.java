@@ -0,0 +1,358 @@
+package blink;
+
+import java.util.*;
+
+// Simplifies a parsed program before it is resolved: folds operators over constants, drops
+// groupings, prunes branches whose condition is a constant and removes arithmetic identities.
+// Anything that would fail at runtime, like dividing a constant by zero, is left for the
+// interpreter to report, and pruned code is kept aside for the Resolver to check. Changed nodes
+// are replaced rather than modified, except for the bodies of functions and lambdas.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Map<Object, List<Object>> pruned = new IdentityHashMap<>();
+
+    // The subtrees pruned as dead, by the node that took their place.
+    Map<Object, List<Object>> pruned() {
+        return pruned;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            optimized.add(optimize(statement));
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        if (exprs == null) {
+            return null;
+        }
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            optimized.add(optimize(expr));
+        }
+        return optimized;
+    }
+
+    @Override
+    public Expr visitBinary(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                Object value = Interpreter.binaryOperation(expr.op, ((Expr.Literal) left).val,
+                        ((Expr.Literal) right).val);
+                return new Expr.Literal(Rope.flatten(value));
+            } catch (RuntimeError error) {
+                // Leave it to fail at runtime.
+            }
+        }
+
+        // Identities that are exact for every number, applied only where the other operand
+        // is known to be one; otherwise it might be a string or array that has to fail.
+        switch (expr.op.type) {
+            case MUL:
+                if (isNumber(right, 1) && isNumeric(left)) return left;
+                if (isNumber(left, 1) && isNumeric(right)) return right;
+                break;
+            case DIV:
+            case EXP:
+                if (isNumber(right, 1) && isNumeric(left)) return left;
+                break;
+            case MINUS:
+                if (isNumber(right, 0) && isNumeric(left)) return left;
+                break;
+            case COMMA:
+                if (left instanceof Expr.Literal) return right;
+                break;
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitUnary(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal) {
+            try {
+                return new Expr.Literal(Interpreter.unaryOperation(expr.op, ((Expr.Literal) right).val));
+            } catch (RuntimeError error) {
+                // Leave it to fail at runtime.
+            }
+        }
+        return right == expr.right ? expr : new Expr.Unary(expr.op, right);
+    }
+
+    @Override
+    public Expr visitLiteral(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGrouping(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitVarExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // Logical operators always produce a boolean, so a constant left side that decides the
+        // result folds to true or false, and one that doesn't only matters through the right.
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).val);
+            boolean or = expr.op.type == TokenType.OR;
+            if (truthy == or) {
+                return new Expr.Literal(or);
+            }
+            if (right instanceof Expr.Literal) {
+                return new Expr.Literal(Interpreter.isTruthy(((Expr.Literal) right).val));
+            }
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr cond = optimize(expr.cond);
+        Expr thenBranch = optimize(expr.thenBranch);
+        Expr elseBranch = optimize(expr.elseBranch);
+
+        if (cond instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal) cond).val)) {
+                return prune(thenBranch, elseBranch);
+            }
+            return prune(elseBranch, thenBranch);
+        }
+
+        if (cond == expr.cond && thenBranch == expr.thenBranch && elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Expr.Conditional(cond, expr.question, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.callee), expr.paren, optimizeAll(expr.args));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        return object == expr.object ? expr : new Expr.Get(expr.name, object);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+        return new Expr.Set(expr.name, object, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        return new Expr.Array(expr.bracket, optimizeAll(expr.values));
+    }
+
+    @Override
+    public Expr visitSubscriptExpr(Expr.Subscript expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if (object == expr.object && index == expr.index) {
+            return expr;
+        }
+        return new Expr.Subscript(object, expr.closeBracket, index);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        // A skimmed body is optimized once it is parsed. Functions keep their identity, see
+        // visitFunctionStmt.
+        if (expr.body != null) {
+            expr.body = optimize(expr.body);
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt visitExprStmt(Stmt.Expression stmt) {
+        Expr expr = optimize(stmt.expr);
+        return expr == stmt.expr ? stmt : new Stmt.Expression(expr);
+    }
+
+    @Override
+    public Stmt visitLetStmt(Stmt.Let stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Let(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr cond = optimize(stmt.cond);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+
+        // Branches are statements, never declarations, so a surviving branch can take the place
+        // of the if without changing what is in scope.
+        if (cond instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) cond).val);
+            Stmt taken = truthy ? thenBranch : elseBranch;
+            return prune(taken != null ? taken : new Stmt.Block(new ArrayList<>()),
+                    truthy ? elseBranch : thenBranch);
+        }
+        return new Stmt.If(stmt.keyword, cond, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr cond = optimize(stmt.cond);
+        Stmt body = optimize(stmt.body);
+        Stmt.While loop = new Stmt.While(stmt.keyword, cond, body);
+        if (cond instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) cond).val)) {
+            // The body is checked inside the loop it was written in.
+            return prune(new Stmt.Block(new ArrayList<>()), loop);
+        }
+        return loop;
+    }
+
+    @Override
+    public Stmt visitDoWhileStmt(Stmt.DoWhile stmt) {
+        return new Stmt.DoWhile(stmt.keyword, optimize(stmt.cond), optimize(stmt.body));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        return new Stmt.For(stmt.keyword, optimize(stmt.init), optimize(stmt.cond), optimize(stmt.incr),
+                optimize(stmt.body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        // The one node rewritten in place: the Resolver, and the LazyBody of a skimmed function,
+        // record what they work out on the function itself. So a tree is only optimized once.
+        if (stmt.body != null) {
+            stmt.body = optimize(stmt.body);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr expr = optimize(stmt.expr);
+        return expr == stmt.expr ? stmt : new Stmt.Return(stmt.keyword, expr);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitSwitchStmt(Stmt.Switch stmt) {
+        ArrayList<Stmt> branches = new ArrayList<>(stmt.branches.size());
+        for (Stmt branch : stmt.branches) {
+            branches.add(optimize(branch));
+        }
+        return new Stmt.Switch(optimize(stmt.cond), stmt.exprs, branches);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            visitFunctionStmt(method);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitUseStmt(Stmt.Use stmt) {
+        Expr module = optimize(stmt.module);
+        return module == stmt.module ? stmt : new Stmt.Use(stmt.keyword, module);
+    }
+
+    private <T> T prune(T replacement, Object dead) {
+        if (dead != null) {
+            pruned.computeIfAbsent(replacement, node -> new ArrayList<>()).add(dead);
+        }
+        return replacement;
+    }
+
+    private static boolean isNumber(Expr expr, double value) {
+        return expr instanceof Expr.Literal && Objects.equals(((Expr.Literal) expr).val, value);
+    }
+
+    // Whether an expression can only ever produce a number or fail.
+    private static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).val instanceof Double;
+        }
+        if (expr instanceof Expr.Unary) {
+            TokenType op = ((Expr.Unary) expr).op.type;
+            return op == TokenType.MINUS || op == TokenType.BIT_NOT;
+        }
+        if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary) expr).op.type) {
+                case MUL:
+                case DIV:
+                case MOD:
+                case EXP:
+                case BIT_AND:
+                case BIT_XOR:
+                case BIT_OR:
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,14 +3,29 @@ package blink;
 import java.util.*;
 
 class Parser {
-    private final List<Token> tokens;
+    private final Blink blink;
+    private final TokenStream tokens;
     private int curr = 0;
+    // The index of the EOF token, or of the token after the closing brace of a function body
+    // parsed on its own.
+    private int limit;
+    // Bodies of functions declared outside any block only get skimmed in lazy mode, what they
+    // capture is known without them.
+    private final boolean lazy;
+    private int depth = 0;
 
     private static class ParseError extends RuntimeException {
     }
 
-    Parser(List<Token> tokens) {
+    Parser(Blink blink, TokenStream tokens) {
+        this(blink, tokens, false);
+    }
+
+    Parser(Blink blink, TokenStream tokens, boolean lazy) {
+        this.blink = blink;
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.limit = tokens.size() - 1;
     }
 
     List<Stmt> parse() {
@@ -25,6 +40,18 @@ class Parser {
         }
     }
 
+    // Parses a skimmed function body, start being the token after its opening brace and end
+    // its closing brace.
+    List<Stmt> body(int start, int end) {
+        curr = start;
+        limit = end + 1;
+        try {
+            return block();
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
     private Stmt declaration() {
         try {
             if (match(TokenType.LET)) return varDeclaration();
@@ -64,12 +91,17 @@ class Parser {
 
         if (!check(TokenType.RPAREN)) {
             do {
-                if (params.size() > 32) Blink.error(peek(), "Cannot have more than 32 parameters");
+                if (params.size() > 32) blink.error(peek(), "Cannot have more than 32 parameters");
                 params.add(consume(TokenType.ID, "Expected parameter name."));
             } while(match(TokenType.COMMA));
         }
         consume(TokenType.RPAREN, "Expected ')' after parameters.");
         consume(TokenType.LBRACE, "Expected '{' before " + kind + " body.");
+        if (lazy && depth == 0) {
+            Stmt.Function function = new Stmt.Function(name, params, null);
+            function.lazy = skim();
+            return function;
+        }
         List<Stmt> body = block();
         return new Stmt.Function(name, params, body);
     }
@@ -118,14 +150,14 @@ class Parser {
 
         while (!match(TokenType.RBRACE)) {
             if (atEnd()) {
-                Blink.error(peek(), "Unexpected end of file.");
+                blink.error(peek(), "Unexpected end of file.");
             } else if (match(TokenType.CASE)) {
                 if (!match(TokenType.STRING, TokenType.NUMBER, TokenType.TRUE, TokenType.FALSE, TokenType.NULL)) {
-                    Blink.error(peek(), "Case expressions must be constants.");
+                    blink.error(peek(), "Case expressions must be constants.");
                 }
                 Object val = previous().literal;
                 if (exprs.indexOf(val) != -1) {
-                    Blink.error(peek(), "Case expressions must be unique.");
+                    blink.error(peek(), "Case expressions must be unique.");
                 }
                 consume(TokenType.COLON, "Expect ':' after case.");
                 Stmt toDo = null;
@@ -136,7 +168,7 @@ class Parser {
                 branches.add(toDo);
             } else if (match(TokenType.DEFAULT)) {
                 if (exprs.indexOf("default") != -1) {
-                    Blink.error(peek(), "Duplicate default stmt.");
+                    blink.error(peek(), "Duplicate default stmt.");
                 }
                 consume(TokenType.COLON, "Expect ':' after case.");
                 Stmt toDo = null;
@@ -146,7 +178,7 @@ class Parser {
                 exprs.add("default");
                 branches.add(toDo);
             } else {
-                Blink.error(peek(), "Unexpected token in middle of switch block.");
+                blink.error(peek(), "Unexpected token in middle of switch block.");
                 break;
             }
         }
@@ -164,6 +196,7 @@ class Parser {
     }
 
     private Stmt forStmt() {
+        Token keyword = previous();
         consume(TokenType.LPAREN, "Expect '(' after for.");
         Expr init = null;
         if (!match(TokenType.SEMICOLON)) {
@@ -181,28 +214,31 @@ class Parser {
             consume(TokenType.RPAREN, "Expect ')' after for expression.");
         }
         Stmt body = statement();
-        return new Stmt.For(init, cond, incr, body);
+        return new Stmt.For(keyword, init, cond, incr, body);
     }
 
     private Stmt doWhileStmt() {
+        Token keyword = previous();
         Stmt body = statement();
         consume(TokenType.WHILE, "Expect 'while' after do block.");
         consume(TokenType.LPAREN, "Expect '(' after while.");
         Expr cond = expression();
         consume(TokenType.RPAREN, "Expect ')' after while condition.");
         consume(TokenType.SEMICOLON, "Expect ';' after do-while.");
-        return new Stmt.DoWhile(cond, body);
+        return new Stmt.DoWhile(keyword, cond, body);
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LPAREN, "Expect '(' after while.");
         Expr cond = expression();
         consume(TokenType.RPAREN, "Expect ')' after while condition.");
         Stmt body = statement();
-        return new Stmt.While(cond, body);
+        return new Stmt.While(keyword, cond, body);
     }
 
     private Stmt ifStatement() {
+        Token keyword = previous();
         consume(TokenType.LPAREN, "Expect '(' after if.");
         Expr cond = expression();
         consume(TokenType.RPAREN, "Expect ')' after if condition.");
@@ -212,16 +248,38 @@ class Parser {
         if (match(TokenType.ELSE)) {
             elseBranch = statement();
         }
-        return new Stmt.If(cond, thenBranch, elseBranch);
+        return new Stmt.If(keyword, cond, thenBranch, elseBranch);
     }
 
     private List<Stmt> block() {
-        List<Stmt> statements = new ArrayList<>();
-        while (!check(TokenType.RBRACE) && !atEnd()) {
-            statements.add(declaration());
+        depth++;
+        try {
+            List<Stmt> statements = new ArrayList<>();
+            while (!check(TokenType.RBRACE) && !atEnd()) {
+                statements.add(declaration());
+            }
+            consume(TokenType.RBRACE, "Expect '}' after block.");
+            return statements;
+        } finally {
+            depth--;
+        }
+    }
+
+    // Steps over a function body to its closing brace, keeping its tokens to parse later.
+    private LazyBody skim() {
+        int start = curr;
+        int braces = 1;
+        while (!atEnd()) {
+            TokenType type = tokens.type(curr);
+            if (type == TokenType.LBRACE) {
+                braces++;
+            } else if (type == TokenType.RBRACE && --braces == 0) {
+                step();
+                return new LazyBody(tokens, start, curr - 1);
+            }
+            step();
         }
-        consume(TokenType.RBRACE, "Expect '}' after block.");
-        return statements;
+        throw error(peek(), "Expect '}' after block.");
     }
 
     private Stmt expressionStmt() {
@@ -265,7 +323,7 @@ class Parser {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.name, get.object, value);
             }
-            Blink.error(equals, "Invalid assignment target.");
+            blink.error(equals, "Invalid assignment target.");
         }
         return expr;
     }
@@ -276,7 +334,7 @@ class Parser {
             if (!check(TokenType.LESS)) {
                 do {
                     if (params.size() > 32) {
-                        Blink.error(peek(), "Cannot have more than 32 parameters.");
+                        blink.error(peek(), "Cannot have more than 32 parameters.");
                     }
                     params.add(consume(TokenType.ID, "Expected parameter name."));
                 } while(match(TokenType.COMMA));
@@ -284,6 +342,11 @@ class Parser {
             consume(TokenType.GREATER, "Expected '>' after lambda parameters");
             consume(TokenType.EQUALS_GREATER, "Expected '=>' before '{'.");
             Token start = consume(TokenType.LBRACE, "Expected '{' before lambda body.");
+            if (lazy && depth == 0) {
+                Expr.Lambda function = new Expr.Lambda(start, params, null);
+                function.lazy = skim();
+                return function;
+            }
             List<Stmt> body = block();
             return new Expr.Lambda(start, params, body);
         }
@@ -293,10 +356,11 @@ class Parser {
     private Expr conditional() {
         Expr expr = logicalOr();
         if (match(TokenType.QUESTION)) {
+            Token question = previous();
             Expr thenBranch = expression();
             consume(TokenType.COLON, "Expect ':' after conditional expression.");
             Expr elseBranch = conditional();
-            expr = new Expr.Conditional(expr, thenBranch, elseBranch);
+            expr = new Expr.Conditional(expr, question, thenBranch, elseBranch);
         }
         return expr;
     }
@@ -445,7 +509,7 @@ class Parser {
         if (!check(TokenType.RPAREN)) {
             do {
                 if (args.size() >= 32) {
-                    Blink.error(peek(), "Cannot have more than 32 arguments.");
+                    blink.error(peek(), "Cannot have more than 32 arguments.");
                 }
                 args.add(assignment());
             } while (match(TokenType.COMMA));
@@ -472,18 +536,19 @@ class Parser {
             expr = new Expr.Grouping(grp);
 
         } else if (match(TokenType.LSQUARE)) {
+            Token bracket = previous();
             List<Expr> values = new ArrayList<>();
             if (match(TokenType.RSQUARE)) {
-                return new Expr.Array(null);
+                return new Expr.Array(bracket, null);
             }
             while (!match(TokenType.RSQUARE)) {
                 Expr value = assignment();
                 values.add(value);
-                if (peek().type != TokenType.RSQUARE) {
+                if (tokens.type(curr) != TokenType.RSQUARE) {
                     consume(TokenType.COMMA, "Expected a comma before the next expression");
                 }
             }
-            return new Expr.Array(values);
+            return new Expr.Array(bracket, values);
 
         } else if (match(TokenType.ID)) {
             expr = new Expr.Variable(previous());
@@ -511,17 +576,17 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Blink.error(token, message);
+        blink.error(token, message);
         return new ParseError();
     }
 
     private void sync() {
-        advance();
+        step();
         while (!atEnd()) {
-            if (previous().type == TokenType.SEMICOLON) {
+            if (tokens.type(curr - 1) == TokenType.SEMICOLON) {
                 return;
             }
-            switch (peek().type) {
+            switch (tokens.type(curr)) {
                 // Enums don't need to be qualified in switch cases apparently
                 case CLASS:
                 case FUNCTION:
@@ -536,14 +601,14 @@ class Parser {
                 case RETURN:
                     return;
             }
-            advance();
+            step();
         }
     }
 
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if (check(type)) {
-                advance();
+                step();
                 return true;
             }
         }
@@ -554,24 +619,29 @@ class Parser {
         if (atEnd()) {
             return false;
         }
-        return peek().type == expected;
+        return tokens.type(curr) == expected;
     }
 
     private boolean checkNext(TokenType expected) {
         if (atEnd()) return false;
-        if (tokens.get(curr + 1).type == TokenType.EOF) return false;
-        return tokens.get(curr + 1).type == expected;
+        if (curr + 1 >= limit) return false;
+        return tokens.type(curr + 1) == expected;
     }
 
     private Token advance() {
+        step();
+        return previous();
+    }
+
+    // Moves past the current token without materializing it.
+    private void step() {
         if (!atEnd()) {
             curr++;
         }
-        return previous();
     }
 
     private boolean atEnd() {
-        return peek().type == TokenType.EOF;
+        return curr >= limit;
     }
 
     private Token peek() {
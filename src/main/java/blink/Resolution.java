@@ -0,0 +1,116 @@
+package blink;
+
+import java.util.*;
+
+// What the resolver worked out about one program's declarations: the slot of every local
+// declaration and whether closures capture it, how big each function's frame is and which
+// cells a closure captures when it is created. It is recorded on the nodes themselves, where the
+// interpreter reads it, the same as references are resolved on the Expr.Local nodes; this class
+// is how the Resolver and the AST cache write and read it. Only the frame of a whole program,
+// which has no node of its own, is kept here, so it can be shared between runs.
+class Resolution {
+    static final int[] NONE = new int[0];
+
+    private final Map<Object, Integer> programSizes = new HashMap<>();
+
+    void declare(Object declaration, int slot) {
+        if (declaration instanceof Stmt.Let) {
+            ((Stmt.Let) declaration).slot = slot;
+        } else if (declaration instanceof Stmt.Function) {
+            ((Stmt.Function) declaration).slot = slot;
+        } else {
+            ((Stmt.Class) declaration).slot = slot;
+        }
+    }
+
+    // The declared variable is captured, so it lives in a Cell in its slot.
+    void box(Object declaration) {
+        if (declaration instanceof Stmt.Let) {
+            ((Stmt.Let) declaration).boxed = true;
+        } else if (declaration instanceof Stmt.Function) {
+            ((Stmt.Function) declaration).boxed = true;
+        } else {
+            ((Stmt.Class) declaration).boxed = true;
+        }
+    }
+
+    // The "super" a subclass's methods see is declared by the class as well.
+    void declareSuper(Stmt.Class declaration, int slot) {
+        declaration.superSlot = slot;
+    }
+
+    void boxSuper(Stmt.Class declaration) {
+        declaration.superBoxed = true;
+    }
+
+    void scope(Object node, int size) {
+        if (node instanceof Stmt.Function) {
+            ((Stmt.Function) node).scopeSize = size;
+        } else if (node instanceof Expr.Lambda) {
+            ((Expr.Lambda) node).scopeSize = size;
+        } else {
+            programSizes.put(node, size);
+        }
+    }
+
+    // What a function's closure captures, in order: a slot of the enclosing frame holding a
+    // Cell, or ~index for a cell the enclosing closure captured itself. Also the slots of the
+    // parameters, "this" included, that closures capture and so must be boxed on entry.
+    void function(Object function, int[] upvalues, int[] cells) {
+        if (function instanceof Stmt.Function) {
+            ((Stmt.Function) function).upvalues = upvalues;
+            ((Stmt.Function) function).cells = cells;
+        } else if (function instanceof Expr.Lambda) {
+            ((Expr.Lambda) function).upvalues = upvalues;
+            ((Expr.Lambda) function).cells = cells;
+        }
+    }
+
+    Integer slot(Object declaration) {
+        int slot;
+        if (declaration instanceof Stmt.Let) {
+            slot = ((Stmt.Let) declaration).slot;
+        } else if (declaration instanceof Stmt.Function) {
+            slot = ((Stmt.Function) declaration).slot;
+        } else {
+            slot = ((Stmt.Class) declaration).slot;
+        }
+        return slot == -1 ? null : slot;
+    }
+
+    boolean boxed(Object declaration) {
+        if (declaration instanceof Stmt.Let) {
+            return ((Stmt.Let) declaration).boxed;
+        } else if (declaration instanceof Stmt.Function) {
+            return ((Stmt.Function) declaration).boxed;
+        }
+        return ((Stmt.Class) declaration).boxed;
+    }
+
+    int scopeSize(Object node) {
+        if (node instanceof Stmt.Function) {
+            return ((Stmt.Function) node).scopeSize;
+        } else if (node instanceof Expr.Lambda) {
+            return ((Expr.Lambda) node).scopeSize;
+        }
+        return programSizes.get(node);
+    }
+
+    int[] upvalues(Object function) {
+        if (function instanceof Stmt.Function) {
+            return ((Stmt.Function) function).upvalues;
+        }
+        return ((Expr.Lambda) function).upvalues;
+    }
+
+    int[] cells(Object function) {
+        if (function instanceof Stmt.Function) {
+            return ((Stmt.Function) function).cells;
+        }
+        return ((Expr.Lambda) function).cells;
+    }
+
+    void addAll(Resolution other) {
+        programSizes.putAll(other.programSizes);
+    }
+}
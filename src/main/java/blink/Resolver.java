@@ -3,15 +3,79 @@ package blink;
 import java.util.*;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Blink blink;
+    private final Resolution resolution;
+    // Dead code the Optimizer pruned, by the node that took its place.
+    private final Map<Object, List<Object>> pruned;
+    private FunctionScope current;
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoopType = LoopType.NONE;
     private ClassType currentClass = ClassType.NONE;
     private EnumType currentEnumType = EnumType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // A local variable. Whether a closure captures it is only known once its scope ends, so
+    // the references to it are kept until then to be told how to reach it.
+    private static class Local {
+        final int slot;
+        // The declaring statement, the class for its "super", or null for parameters and
+        // "this", which are boxed on entry to the function instead.
+        final Object declaration;
+        boolean defined;
+        boolean captured = false;
+        final List<Expr.Local> uses = new ArrayList<>();
+
+        Local(int slot, Object declaration, boolean defined) {
+            this.slot = slot;
+            this.declaration = declaration;
+            this.defined = defined;
+        }
+    }
+
+    // A function being resolved, or the top level of the script. The block scopes of a
+    // function share its frame: slots are handed out in order and never reused.
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final List<Map<Symbol, Local>> scopes = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        final List<Integer> cells = new ArrayList<>();
+        int size = 0;
+
+        FunctionScope(FunctionScope enclosing) {
+            this.enclosing = enclosing;
+        }
+
+        Map<Symbol, Local> innermost() {
+            return scopes.get(scopes.size() - 1);
+        }
+
+        Local find(Symbol name) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                Local local = scopes.get(i).get(name);
+                if (local != null) {
+                    return local;
+                }
+            }
+            return null;
+        }
+
+        int upvalue(int descriptor) {
+            int index = upvalues.indexOf(descriptor);
+            if (index == -1) {
+                index = upvalues.size();
+                upvalues.add(descriptor);
+            }
+            return index;
+        }
+    }
+
+    Resolver(Blink blink, Resolution resolution) {
+        this(blink, resolution, Collections.emptyMap());
+    }
+
+    Resolver(Blink blink, Resolution resolution, Map<Object, List<Object>> pruned) {
+        this.blink = blink;
+        this.resolution = resolution;
+        this.pruned = pruned;
     }
 
     @Override
@@ -19,7 +83,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingType = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt, stmt.name);
 
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
@@ -30,16 +94,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            declareSynthetic(Symbol.SUPER, stmt);
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
 
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.symbol == Symbol.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
 
@@ -50,8 +111,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             endScope();
         }
 
-        endScope();
-
         currentClass = enclosingType;
         return null;
     }
@@ -59,21 +118,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Blink.error(expr.keyword, "Cannot use 'super' outside of class.");
+            blink.error(expr.keyword, "Cannot use 'super' outside of class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Blink.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            blink.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, Symbol.SUPER);
+        resolveLocal(expr.receiver, Symbol.THIS);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Blink.error(expr.keyword, "Cannot use 'this' outside of a class.");
+            blink.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, Symbol.THIS);
         return null;
     }
 
@@ -97,7 +157,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         if (currentLoopType == LoopType.NONE) {
-            Blink.error(stmt.keyword, "Break can only used be inside switch cases & loops.");
+            blink.error(stmt.keyword, "Break can only used be inside switch cases & loops.");
         }
         return null;
     }
@@ -105,7 +165,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt) {
         if (currentLoopType == LoopType.NONE) {
-            Blink.error(stmt.keyword, "Continue can only used be inside loops.");
+            blink.error(stmt.keyword, "Continue can only used be inside loops.");
         }
         return null;
     }
@@ -113,32 +173,113 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
-        resolve(stmt.statements);
+        resolveAll(stmt.statements);
         endScope();
         return null;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        current.scopes.add(new HashMap<Symbol, Local>());
     }
 
+    // Now that nothing else can capture the scope's variables, tells every reference how to
+    // reach them and which declarations need a cell.
     private void endScope() {
-        scopes.pop();
+        for (Map.Entry<Symbol, Local> entry : current.scopes.remove(current.scopes.size() - 1).entrySet()) {
+            Local local = entry.getValue();
+            for (Expr.Local use : local.uses) {
+                use.access = local.captured ? Expr.CELL : Expr.LOCAL;
+            }
+            if (local.captured) {
+                if (local.declaration != null && entry.getKey() == Symbol.SUPER) {
+                    resolution.boxSuper((Stmt.Class) local.declaration);
+                } else if (local.declaration != null) {
+                    resolution.box(local.declaration);
+                } else {
+                    current.cells.add(local.slot);
+                }
+            }
+        }
     }
 
+    private void beginFunction() {
+        current = new FunctionScope(current);
+    }
+
+    private void endFunction(Object function) {
+        resolution.scope(function, current.size);
+        resolution.function(function, toArray(current.upvalues), toArray(current.cells));
+        current = current.enclosing;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    // Resolves a whole script. Its top level gets a frame of its own for the variables
+    // declared in blocks outside any function.
     void resolve(List<Stmt> statements) {
+        beginFunction();
+        resolveAll(statements);
+        endFunction(statements);
+    }
+
+    // Resolves the body of a function the Parser skimmed, which the Resolver left for later
+    // where the function was declared.
+    void resolve(Object function, List<Stmt> body, LazyBody lazy) {
+        beginFunction();
+        currentClass = lazy.classType;
+        if (lazy.superSlot != -1) {
+            beginScope();
+            Local local = new Local(lazy.superSlot, null, true);
+            local.captured = true;
+            current.innermost().put(Symbol.SUPER, local);
+        }
+        if (function instanceof Stmt.Function) {
+            ((Stmt.Function) function).body = body;
+            resolveFunction((Stmt.Function) function, lazy.type);
+        } else {
+            ((Expr.Lambda) function).body = body;
+            resolveFunction((Expr.Lambda) function, lazy.type);
+        }
+    }
+
+    private void resolveAll(List<Stmt> statements) {
         for (Stmt stmt : statements) {
             resolve(stmt);
         }
     }
 
     private void resolve(Stmt stmt) {
+        if (!pruned.isEmpty()) {
+            resolvePruned(stmt);
+        }
         stmt.accept(this);
     }
 
+    // Dead code never runs, but it is checked where it was written, so an error in it is
+    // reported the same as with the Optimizer off.
+    private void resolvePruned(Object node) {
+        List<Object> dead = pruned.get(node);
+        if (dead == null) {
+            return;
+        }
+        for (Object subtree : dead) {
+            if (subtree instanceof Stmt) {
+                resolve((Stmt) subtree);
+            } else {
+                resolve((Expr) subtree);
+            }
+        }
+    }
+
     @Override
     public Void visitLetStmt(Stmt.Let stmt) {
-        declare(stmt.name);
+        declare(stmt, stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -146,87 +287,196 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) {
+    private void declare(Stmt stmt, Token name) {
+        if (current.scopes.isEmpty()) {
             return;
         }
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Blink.error(name, "Variable with this name already declared in scope.");
+        resolution.declare(stmt, declare(name, stmt));
+    }
+
+    private int declare(Token name, Object declaration) {
+        Map<Symbol, Local> scope = current.innermost();
+        if (scope.containsKey(name.symbol)) {
+            blink.error(name, "Variable with this name already declared in scope.");
+            return scope.get(name.symbol).slot;
+        }
+        int slot = current.size++;
+        scope.put(name.symbol, new Local(slot, declaration, false));
+        return slot;
+    }
+
+    private void declareSynthetic(Symbol name, Stmt.Class declaration) {
+        int slot = current.size++;
+        current.innermost().put(name, new Local(slot, declaration, true));
+        if (declaration != null) {
+            resolution.declareSuper(declaration, slot);
         }
-        scope.put(name.lexeme, false);
     }
 
     private void define(Token name) {
-        if (scopes.isEmpty()) {
+        if (current.scopes.isEmpty()) {
             return;
         }
-        scopes.peek().put(name.lexeme, true);
+        current.innermost().get(name.symbol).defined = true;
     }
 
     private void resolve(Expr expr) {
+        if (!pruned.isEmpty()) {
+            resolvePruned(expr);
+        }
         expr.accept(this);
     }
 
     @Override
     public Void visitVarExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Blink.error(expr.name, "Cannot read local variable in its own initializer.");
+        if (!current.scopes.isEmpty()) {
+            Local local = current.innermost().get(expr.name.symbol);
+            if (local != null && !local.defined) {
+                blink.error(expr.name, "Cannot read local variable in its own initializer.");
+            }
         }
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.symbol);
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+    // A variable of the current function is reached through its frame, how exactly is settled
+    // when its scope ends. One of an enclosing function's is captured as an upvalue.
+    private void resolveLocal(Expr.Local expr, Symbol name) {
+        Local local = current.find(name);
+        if (local != null) {
+            local.uses.add(expr);
+            expr.slot = local.slot;
+            return;
+        }
+
+        int index = resolveUpvalue(current, name);
+        if (index != -1) {
+            expr.access = Expr.UPVALUE;
+            expr.slot = index;
+        }
+    }
+
+    // Threads a captured variable through every function between its own and the one using
+    // it. Returns the upvalue index in the function, or -1 for a global.
+    private int resolveUpvalue(FunctionScope function, Symbol name) {
+        if (function.enclosing == null) {
+            return -1;
+        }
+
+        Local local = function.enclosing.find(name);
+        if (local != null) {
+            local.captured = true;
+            return function.upvalue(local.slot);
+        }
+
+        int index = resolveUpvalue(function.enclosing, name);
+        if (index != -1) {
+            return function.upvalue(~index);
         }
+        return -1;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.symbol);
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt, stmt.name);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.lazy != null && function.body == null) {
+            if (defer(function, function.lazy, type)) {
+                return;
+            }
+            // Errors are reported now, calls find the body still missing.
+            List<Stmt> body = function.lazy.parse(blink);
+            if (body == null) {
+                resolution.scope(function, 0);
+                return;
+            }
+            function.body = body;
+            function.lazy = null;
+        }
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        beginFunction();
         beginScope();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declareSynthetic(Symbol.THIS, null);
+        }
         for (Token param : function.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
-        resolve(function.body);
+        resolveAll(function.body);
         endScope();
+        endFunction(function);
         currentFunction = enclosingFunction;
     }
 
     private void resolveFunction(Expr.Lambda function, FunctionType type) {
+        if (function.lazy != null && function.body == null) {
+            if (defer(function, function.lazy, type)) {
+                return;
+            }
+            // Errors are reported now, calls find the body still missing.
+            List<Stmt> body = function.lazy.parse(blink);
+            if (body == null) {
+                resolution.scope(function, 0);
+                return;
+            }
+            function.body = body;
+            function.lazy = null;
+        }
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        beginFunction();
         beginScope();
         for (Token param : function.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
-        resolve(function.body);
+        resolveAll(function.body);
         endScope();
+        endFunction(function);
         currentFunction = enclosingFunction;
     }
 
+    // Leaves a skimmed body for its first call if the function is declared where it can capture
+    // nothing but a method's superclass, so what its closure captures is known without the
+    // body. Its frame size and boxed parameters are recorded when the body is resolved.
+    private boolean defer(Object function, LazyBody lazy, FunctionType type) {
+        if (current.enclosing != null || currentLoopType != LoopType.NONE) {
+            return false;
+        }
+        int[] upvalues = new int[0];
+        if (!current.scopes.isEmpty()) {
+            Map<Symbol, Local> scope = current.innermost();
+            if (current.scopes.size() > 1 || scope.size() > 1 || !scope.containsKey(Symbol.SUPER)) {
+                return false;
+            }
+            if (lazy.mentions(TokenType.SUPER)) {
+                Local local = scope.get(Symbol.SUPER);
+                local.captured = true;
+                lazy.superSlot = local.slot;
+                upvalues = new int[]{local.slot};
+            }
+        }
+        lazy.type = type;
+        lazy.classType = currentClass;
+        resolution.scope(function, 0);
+        resolution.function(function, upvalues, new int[0]);
+        return true;
+    }
+
     @Override
     public Void visitExprStmt(Stmt.Expression stmt) {
         resolve(stmt.expr);
@@ -246,13 +496,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Blink.error(stmt.keyword, "Cannot return form top-level scope.");
+            blink.error(stmt.keyword, "Cannot return form top-level scope.");
         }
         if (stmt.expr != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Blink.error(stmt.keyword, "Cannot return a value from an initializer.");
+                blink.error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.expr);
+            stmt.tail = stmt.expr instanceof Expr.Call && currentFunction != FunctionType.NONE
+                    && currentFunction != FunctionType.INITIALIZER;
         }
         return null;
     }
@@ -297,6 +549,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSwitchStmt(Stmt.Switch stmt) {
+        resolve(stmt.cond);
         LoopType enclosingType = currentLoopType;
         currentLoopType = LoopType.SWITCH;
         for (Stmt item : stmt.branches) {
@@ -380,18 +633,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 }
 
-enum FunctionType {
-    NONE,
-    FUNCTION,
-    METHOD,
-    LAMBDA,
-    INITIALIZER;
-}
-
-enum ClassType {
+enum LoopType {
     NONE,
-    CLASS,
-    SUBCLASS
+    LOOP,
+    SWITCH
 }
 
 enum EnumType {
@@ -0,0 +1,72 @@
+package blink;
+
+import java.util.*;
+
+// A string built by concatenation. Joining two strings only links them and the characters are
+// copied once, the first time something needs the whole string, so building a string a piece
+// at a time stays linear. Ropes only live in variables, fields and on the stack: comparing a
+// string, storing it in an array or handing it to a native function flattens it first.
+final class Rope {
+    // Shorter results are copied straight away, a rope wouldn't pay for itself.
+    private static final int MIN_LENGTH = 64;
+
+    // Each half is a String or a Rope, dropped once the rope is flattened.
+    private Object left, right;
+    private String flat;
+    private final int length;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static Object concat(Object left, Object right) {
+        int length = length(left) + length(right);
+        if (length < MIN_LENGTH) {
+            return left.toString() + right.toString();
+        }
+        return new Rope(left, right, length);
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    static Object flatten(Object value) {
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    private static int length(Object string) {
+        return string instanceof Rope ? ((Rope) string).length : ((String) string).length();
+    }
+
+    @Override
+    public String toString() {
+        if (flat != null) {
+            return flat;
+        }
+
+        // A rope built in a loop is as deep as the loop ran long, so walk it without recursing.
+        char[] chars = new char[length];
+        int position = 0;
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object node = pending.pop();
+            if (node instanceof Rope && ((Rope) node).flat == null) {
+                Rope rope = (Rope) node;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                String string = node.toString();
+                string.getChars(0, string.length(), chars, position);
+                position += string.length();
+            }
+        }
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+}
@@ -0,0 +1,42 @@
+package blink;
+
+import java.util.*;
+
+// Hidden class shared by all instances of a class that gained the same fields in the same order.
+class Shape {
+    final BlinkClass _class;
+    private final Map<Symbol, Integer> offsets;
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+
+    Shape(BlinkClass _class) {
+        this(_class, new HashMap<>());
+    }
+
+    private Shape(BlinkClass _class, Map<Symbol, Integer> offsets) {
+        this._class = _class;
+        this.offsets = offsets;
+    }
+
+    int offset(Symbol name) {
+        Integer offset = offsets.get(name);
+        if (offset == null) {
+            return -1;
+        }
+        return offset;
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    Shape transition(Symbol name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<Symbol, Integer> nextOffsets = new HashMap<>(offsets);
+            nextOffsets.put(name, offsets.size());
+            next = new Shape(_class, nextOffsets);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
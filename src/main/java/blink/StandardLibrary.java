@@ -19,34 +19,27 @@ class StandardLibrary {
         return hexString.toString();
     }
 
-    // Stringify method for various operations
-    private static String stringify(Object object) {
-        if (object == null) {
-            return "null";
+    public static final BlinkCallable print = new BlinkCallable() {
+        @Override
+        public int arity() { return 1; }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] args) {
+            System.out.print(Interpreter.stringify(args[0]));
+            return null;
         }
+    };
 
-        if (object instanceof List) {
-            StringBuilder text = new StringBuilder("[");
-            List<Object> list = (List<Object>) object;
-            for (int i = 0; i < list.size(); ++i) {
-                text.append(stringify(list.get(i)));
-                if (i != list.size() - 1) {
-                    text.append(", ");
-                }
-            }
-            text.append("]");
-            return text.toString();
-        }
+    public static final BlinkCallable println = new BlinkCallable() {
+        @Override
+        public int arity() { return 1; }
 
-        if (object instanceof Double) {
-            String num = object.toString();
-            if (num.endsWith(".0")) {
-                num = num.substring(0, num.length() - 2);
-            }
-            return num;
+        @Override
+        public Object call(Interpreter interpreter, Object[] args) {
+            System.out.println(Interpreter.stringify(args[0]));
+            return null;
         }
-        return object.toString();
-    }
+    };
 
     public static final NativeInstance Crypto =
             new NativeInstance("Crypto", new HashMap<>() {{
@@ -55,8 +48,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        String originalString = (String) args.get(0);
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        String originalString = (String) args[0];
                         MessageDigest digest;
                         try {
                             digest = MessageDigest.getInstance("SHA3-256");
@@ -78,7 +71,7 @@ class StandardLibrary {
                     public int arity() { return 0; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         Date date = new Date();
                         SimpleDateFormat formatter = new SimpleDateFormat("HH:mm:ss");
                         return formatter.format(date);
@@ -90,7 +83,7 @@ class StandardLibrary {
                     public int arity() { return 0; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         Date date = new Date();
                         SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
                         return formatter.format(date);
@@ -102,7 +95,7 @@ class StandardLibrary {
                     public int arity() { return 0; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         Date date = new Date();
                         SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
                         return formatter.format(date);
@@ -117,11 +110,11 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         StringBuilder contents = new StringBuilder();
 
                         try {
-                            BufferedReader br = new BufferedReader(new FileReader(stringify(args.get(0))));
+                            BufferedReader br = new BufferedReader(new FileReader(Interpreter.stringify(args[0])));
                             String currLine;
                             contents = new StringBuilder();
                             while((currLine = br.readLine()) != null) {
@@ -140,10 +133,10 @@ class StandardLibrary {
                     public int arity() { return 2; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         try {
-                            BufferedWriter bw = new BufferedWriter(new FileWriter(stringify(args.get(0))));
-                            bw.write(stringify(args.get(1)));
+                            BufferedWriter bw = new BufferedWriter(new FileWriter(Interpreter.stringify(args[0])));
+                            bw.write(Interpreter.stringify(args[1]));
                             bw.close();
                             return true;
                         } catch (IOException e) {
@@ -158,10 +151,10 @@ class StandardLibrary {
                     public int arity() { return 2; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         try {
-                            BufferedWriter bw = new BufferedWriter(new FileWriter(stringify(args.get(0)), true));
-                            bw.append(stringify(args.get(1)));
+                            BufferedWriter bw = new BufferedWriter(new FileWriter(Interpreter.stringify(args[0]), true));
+                            bw.append(Interpreter.stringify(args[1]));
                             bw.close();
                             return true;
                         } catch (IOException e) {
@@ -179,8 +172,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        Double value = (Double) args.get(0);
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        Double value = (Double) args[0];
                         return java.lang.Math.round(value);
                     }
                 });
@@ -190,8 +183,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        double arg = (Double) args.get(0);
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        double arg = (Double) args[0];
                         int value = (int) arg;
                         Random rand = new Random();
                         return rand.nextInt(value);
@@ -203,9 +196,9 @@ class StandardLibrary {
                     public int arity() { return 2; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        return ((Integer)(((Double) args.get(0)).intValue()
-                                << ((Double) args.get(1)).intValue())).doubleValue();
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        return ((Integer)(((Double) args[0]).intValue()
+                                << ((Double) args[1]).intValue())).doubleValue();
                     }
                 });
 
@@ -214,9 +207,9 @@ class StandardLibrary {
                     public int arity() { return 2; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        return ((Integer)(((Double) args.get(0)).intValue()
-                                >> ((Double) args.get(1)).intValue())).doubleValue();
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        return ((Integer)(((Double) args[0]).intValue()
+                                >> ((Double) args[1]).intValue())).doubleValue();
                     }
                 });
             }});
@@ -228,7 +221,7 @@ class StandardLibrary {
                     public int arity() { return 0; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         try {
                             BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
                             return br.readLine();
@@ -244,8 +237,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        System.err.println((String) args.get(0));
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        System.err.println((String) args[0]);
                         return null;
                     }
                 });
@@ -255,8 +248,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        System.exit((int)(double) args.get(0));
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        System.exit((int)(double) args[0]);
                         return null;
                     }
                 });
@@ -266,8 +259,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        Object object = args.get(0);
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        Object object = args[0];
                         if (object instanceof String) return ((String) object).length();
                         if (object instanceof List) return ((List) object).size();
                         return null;
@@ -279,8 +272,8 @@ class StandardLibrary {
                     public int arity() { return 1; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> args) {
-                        Object value = args.get(0);
+                    public Object call(Interpreter interpreter, Object[] args) {
+                        Object value = args[0];
 
                         if (value instanceof String) {
                             return "String";
@@ -302,17 +295,25 @@ class StandardLibrary {
                     public int arity() { return 0; }
 
                     @Override
-                    public Object call(Interpreter interpreter, List<Object> arg) {
+                    public Object call(Interpreter interpreter, Object[] args) {
                         return (double) System.currentTimeMillis() / 1000;
                     }
                 });
             }});
 
+    static final Map<String, NativeInstance> libraries = new LinkedHashMap<>();
+
+    static {
+        libraries.put("Crypto", Crypto);
+        libraries.put("Time", Time);
+        libraries.put("File", File);
+        libraries.put("Math", Math);
+        libraries.put("Utils", Utils);
+    }
+
     static void importAll(Environment environment) {
-        environment.define("Crypto", Crypto);
-        environment.define("Time", Time);
-        environment.define("File", File);
-        environment.define("Math", Math);
-        environment.define("Utils", Utils);
+        for (Map.Entry<String, NativeInstance> library : libraries.entrySet()) {
+            environment.define(Symbol.of(library.getKey()), library.getValue());
+        }
     }
 }
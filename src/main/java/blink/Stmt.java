@@ -38,6 +38,10 @@ abstract class Stmt {
     static class Let extends Stmt {
         final Token name;
         final Expr initializer;
+        // Recorded by the Resolver: the variable's slot, or -1 for a global, and whether closures
+        // capture it, so that it lives in a Cell.
+        int slot = -1;
+        boolean boxed = false;
 
         Let(Token name, Expr initializer) {
             this.name = name;
@@ -63,11 +67,13 @@ abstract class Stmt {
     }
 
     static class If extends Stmt {
+        final Token keyword;
         final Expr cond;
         final Stmt thenBranch;
         final Stmt elseBranch;
 
-        If(Expr cond, Stmt thenBranch, Stmt elseBranch) {
+        If(Token keyword, Expr cond, Stmt thenBranch, Stmt elseBranch) {
+            this.keyword = keyword;
             this.cond = cond;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -79,10 +85,12 @@ abstract class Stmt {
     }
 
     static class While extends Stmt {
+        final Token keyword;
         final Expr cond;
         final Stmt body;
 
-        While(Expr cond, Stmt body) {
+        While(Token keyword, Expr cond, Stmt body) {
+            this.keyword = keyword;
             this.cond = cond;
             this.body = body;
         }
@@ -93,10 +101,12 @@ abstract class Stmt {
     }
 
     static class DoWhile extends Stmt {
+        final Token keyword;
         final Expr cond;
         final Stmt body;
 
-        DoWhile(Expr cond, Stmt body) {
+        DoWhile(Token keyword, Expr cond, Stmt body) {
+            this.keyword = keyword;
             this.cond = cond;
             this.body = body;
         }
@@ -107,10 +117,12 @@ abstract class Stmt {
     }
 
     static class For extends Stmt {
+        final Token keyword;
         final Expr init, cond, incr;
         final Stmt body;
 
-        For(Expr init, Expr cond, Expr incr, Stmt body) {
+        For(Token keyword, Expr init, Expr cond, Expr incr, Stmt body) {
+            this.keyword = keyword;
             this.init = init;
             this.cond = cond;
             this.incr = incr;
@@ -126,6 +138,15 @@ abstract class Stmt {
         Token name;
         List<Token> params;
         List<Stmt> body;
+        // Set instead of body until the body is parsed, when the Parser only skimmed it.
+        LazyBody lazy;
+        // Recorded by the Resolver: where the function is declared, as for Let, then its frame
+        // size and what its closure captures, as listed by Resolution.function.
+        int slot = -1;
+        boolean boxed = false;
+        int scopeSize = 0;
+        int[] upvalues = Resolution.NONE;
+        int[] cells = Resolution.NONE;
 
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -141,6 +162,8 @@ abstract class Stmt {
     static class Return extends Stmt {
         Expr expr;
         Token keyword;
+        // Set by the Resolver when expr is a call whose result the function returns as is.
+        boolean tail = false;
 
         Return(Token keyword, Expr expr) {
             this.keyword = keyword;
@@ -180,6 +203,8 @@ abstract class Stmt {
         Expr cond;
         ArrayList<Stmt> branches;
         ArrayList<Object> exprs;
+        // Built the first time the switch runs.
+        CaseTable table = null;
 
         Switch(Expr cond, ArrayList<Object> exprs, ArrayList<Stmt> branches) {
             this.cond = cond;
@@ -196,6 +221,12 @@ abstract class Stmt {
         Token name;
         List<Stmt.Function> methods;
         Expr.Variable superclass;
+        // Recorded by the Resolver: where the class is declared, as for Let, and the same for
+        // the "super" its methods see.
+        int slot = -1;
+        boolean boxed = false;
+        int superSlot = -1;
+        boolean superBoxed = false;
 
         Class(Token name, List<Stmt.Function> methods, Expr.Variable superclass) {
             this.name = name;
@@ -0,0 +1,21 @@
+package blink;
+
+import java.util.*;
+
+class SwitchCases {
+    final List<Object> exprs;
+    final int[] targets;
+    int end;
+    private final CaseTable table;
+
+    SwitchCases(List<Object> exprs) {
+        this.exprs = exprs;
+        this.targets = new int[exprs.size()];
+        this.table = new CaseTable(exprs);
+    }
+
+    int target(Object value) {
+        int index = table.index(Rope.flatten(value));
+        return index == -1 ? end : targets[index];
+    }
+}
@@ -0,0 +1,71 @@
+package blink;
+
+import java.lang.ref.*;
+import java.util.concurrent.*;
+
+// An interned name. There is one Symbol per distinct name among the ones in use, so symbols
+// compare by identity and hash to a value computed once, which makes them cheap keys for
+// globals, fields, methods and library members. The table only holds them weakly: a name no
+// tree, class or run refers to any more is dropped, so a process running many different scripts
+// doesn't keep every name it has ever seen.
+final class Symbol {
+    private static final ConcurrentMap<String, Entry> symbols = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
+
+    static final Symbol INIT = of("init");
+    static final Symbol SUPER = of("super");
+    static final Symbol THIS = of("this");
+
+    final String name;
+    private final int hash;
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final String name;
+
+        Entry(Symbol symbol) {
+            super(symbol, collected);
+            this.name = symbol.name;
+        }
+    }
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    static Symbol of(String name) {
+        Entry entry = symbols.get(name);
+        Symbol symbol = entry == null ? null : entry.get();
+        if (symbol != null) {
+            return symbol;
+        }
+        expunge();
+        Symbol created = new Symbol(name);
+        while (true) {
+            // An entry whose symbol was collected is replaced; otherwise another thread won.
+            symbol = symbols.compute(name, (key, old) -> old != null && old.get() != null ? old : new Entry(created))
+                    .get();
+            if (symbol != null) {
+                return symbol;
+            }
+        }
+    }
+
+    // Removes the entries of symbols that were collected, unless a new symbol took the name.
+    private static void expunge() {
+        for (Reference<? extends Symbol> reference; (reference = collected.poll()) != null; ) {
+            Entry entry = (Entry) reference;
+            symbols.remove(entry.name, entry);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -5,13 +5,28 @@ class Token {
     final int line, col;
     final String lexeme;
     final Object literal;
+    // The interned name of an identifier, null for every other token.
+    final Symbol symbol;
+    // Where the token is in its source, or -1 for tokens that were not scanned from one.
+    final int offset, length;
 
     Token(TokenType type, String lexeme, Object literal, int line, int col) {
+        this(type, lexeme, literal, line, col, -1, 0);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int col, int offset, int length) {
+        this(type, lexeme, literal, line, col, offset, length, type == TokenType.ID ? Symbol.of(lexeme) : null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int col, int offset, int length, Symbol symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
         this.col = col;
+        this.offset = offset;
+        this.length = length;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,147 @@
+package blink;
+
+import java.util.*;
+
+// The tokens of one source as parallel arrays instead of one object per token. Identifiers,
+// literals and EOF keep their lexeme and value in a side table, an identifier's value being its
+// Symbol; every other token's lexeme is the constant for its type. The Parser checks types
+// straight from the arrays and only materializes a Token for the ones it keeps in the tree or
+// reports an error at.
+class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final String[] lexemes = new String[TYPES.length];
+
+    static {
+        for (Map.Entry<String, TokenType> keyword : Tokenizer.keywords.entrySet()) {
+            lexemes[keyword.getValue().ordinal()] = keyword.getKey();
+        }
+        String[][] symbols = {
+                {"(", "LPAREN"}, {")", "RPAREN"}, {";", "SEMICOLON"}, {"{", "LBRACE"}, {"}", "RBRACE"},
+                {"[", "LSQUARE"}, {"]", "RSQUARE"}, {",", "COMMA"}, {".", "DOT"}, {"+", "PLUS"},
+                {"-", "MINUS"}, {"*", "MUL"}, {"/", "DIV"}, {":=", "ASSIGN"}, {"%", "MOD"}, {"**", "EXP"},
+                {"++", "PLUS_PLUS"}, {"--", "MINUS_MINUS"}, {"=", "EQUALS"}, {"!=", "NOT_EQUALS"},
+                {">", "GREATER"}, {">=", "GREATER_EQUALS"}, {"<", "LESS"}, {"<=", "LESS_EQUALS"},
+                {"=>", "EQUALS_GREATER"}, {"~", "BIT_NOT"}, {"&", "BIT_AND"}, {"|", "BIT_OR"},
+                {"^", "BIT_XOR"}, {"?", "QUESTION"}, {":", "COLON"}
+        };
+        for (String[] symbol : symbols) {
+            lexemes[TokenType.valueOf(symbol[1]).ordinal()] = symbol[0];
+        }
+    }
+
+    private byte[] types;
+    private int[] offsets, lengths, lines, cols;
+    // A side table token's length is that of its lexeme, so its slot in lengths holds its index
+    // in the side table instead.
+    private String[] values;
+    private Object[] literals;
+    private int size = 0, entries = 0;
+    // The scanned text, which offsets index. Kept for the bodies the Parser skims.
+    private final CharSequence source;
+    // The Parser usually asks for the same token a few times in a row.
+    private int cachedIndex = -1;
+    private Token cached;
+
+    TokenStream(CharSequence source, int capacity) {
+        this.source = source;
+        types = new byte[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        cols = new int[capacity];
+        values = new String[capacity / 2 + 1];
+        literals = new Object[capacity / 2 + 1];
+    }
+
+    void add(TokenType type, int offset, int length, int line, int col) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = (byte) type.ordinal();
+        offsets[size] = offset;
+        lengths[size] = length;
+        lines[size] = line;
+        cols[size] = col;
+        size++;
+    }
+
+    void add(TokenType type, String lexeme, Object literal, int offset, int line, int col) {
+        if (entries == values.length) {
+            values = Arrays.copyOf(values, entries * 2);
+            literals = Arrays.copyOf(literals, entries * 2);
+        }
+        values[entries] = lexeme;
+        literals[entries] = literal;
+        add(type, offset, entries++, line, col);
+    }
+
+    void addIdentifier(Symbol symbol, int offset, int line, int col) {
+        add(TokenType.ID, symbol.name, symbol, offset, line, col);
+    }
+
+    private void grow() {
+        resize(Math.max(16, size * 2));
+    }
+
+    // Drops the spare capacity once the source is scanned, the stream lives as long as the parse.
+    void trim() {
+        resize(size);
+        values = Arrays.copyOf(values, entries);
+        literals = Arrays.copyOf(literals, entries);
+    }
+
+    private void resize(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        cols = Arrays.copyOf(cols, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    int col(int index) {
+        return cols[index];
+    }
+
+    // The text after the first token up to the end of the last, which has a constant lexeme.
+    String source(int first, int last) {
+        int end = offsets[last] + lexemes[types[last]].length();
+        return source.subSequence(offsets[first] + lexemes[types[first]].length(), end).toString();
+    }
+
+    Token get(int index) {
+        if (index == cachedIndex) {
+            return cached;
+        }
+        TokenType type = TYPES[types[index]];
+        String lexeme = lexemes[type.ordinal()];
+        Token token;
+        if (lexeme != null) {
+            token = new Token(type, lexeme, null, lines[index], cols[index], offsets[index], lengths[index]);
+        } else {
+            int entry = lengths[index];
+            lexeme = values[entry];
+            if (type == TokenType.ID) {
+                token = new Token(type, lexeme, lexeme, lines[index], cols[index], offsets[index], lexeme.length(),
+                        (Symbol) literals[entry]);
+            } else {
+                token = new Token(type, lexeme, literals[entry], lines[index], cols[index], offsets[index],
+                        lexeme == null ? 0 : lexeme.length());
+            }
+        }
+        cachedIndex = index;
+        cached = token;
+        return token;
+    }
+}
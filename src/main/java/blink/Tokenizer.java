@@ -1,12 +1,18 @@
 package blink;
 
+import java.nio.*;
 import java.util.*;
 
+// Scans the characters of the source in place into a TokenStream. Only identifiers and literals
+// get lexemes of their own; identifiers are interned into Symbols as they are scanned.
 class Tokenizer {
-    private final String source;
-    private final List<Token> tokens;
+    private final Blink blink;
+    private final char[] buffer;
+    private final int base, limit;
+    private final TokenStream tokens;
+    private final Lexemes identifiers = new Lexemes();
     private int line, col, begin, curr;
-    private static final Map<String, TokenType> keywords;
+    static final Map<String, TokenType> keywords;
 
     static {
         keywords = new HashMap<>();
@@ -38,14 +44,31 @@ class Tokenizer {
         keywords.put("enum", TokenType.ENUM);
     }
 
-    Tokenizer(String source) {
-        this.source = source;
-        this.tokens = new ArrayList<Token>();
-        this.begin = this.curr = this.col = 0;
-        this.line = 1;
+    // Scans a CharBuffer with a backing array, such as a decoded file, without copying it. Other
+    // sources are copied into an array once.
+    Tokenizer(Blink blink, CharSequence source) {
+        this(blink, source, 1, 0);
     }
 
-    List<Token> getTokens() {
+    // Scans a piece of a larger source that starts at the given position in it.
+    Tokenizer(Blink blink, CharSequence source, int line, int col) {
+        CharBuffer chars = source instanceof CharBuffer && ((CharBuffer) source).hasArray()
+                ? (CharBuffer) source
+                : CharBuffer.wrap(source.toString().toCharArray());
+        this.blink = blink;
+        this.buffer = chars.array();
+        this.base = chars.arrayOffset() + chars.position();
+        this.limit = base + chars.remaining();
+        this.tokens = new TokenStream(chars, (limit - base) / 4 + 16);
+        this.begin = this.curr = base;
+        this.col = col;
+        this.line = line;
+        for (String keyword : keywords.keySet()) {
+            identifiers.add(keyword);
+        }
+    }
+
+    TokenStream getTokens() {
         return tokens;
     }
 
@@ -55,7 +78,8 @@ class Tokenizer {
             nextToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, null, "EOF", line, col + 1));
+        tokens.add(TokenType.EOF, null, "EOF", curr - base, line, col + 1);
+        tokens.trim();
     }
 
     private void nextToken() {
@@ -103,7 +127,7 @@ class Tokenizer {
                 if (match('=')) {
                     addToken(TokenType.NOT_EQUALS);
                 } else {
-                    Blink.error(line, col, "Unexpected character");
+                    blink.error(line, col, "Unexpected character");
                 }
                 break;
             case '>':
@@ -137,7 +161,7 @@ class Tokenizer {
                 } else if (Character.isLetter(c) || c == '_') {
                     handleIdentifier();
                 } else {
-                    Blink.error(line, col, "Unknown symbol '" + c + "'.");
+                    blink.error(line, col, "Unknown symbol '" + c + "'.");
                 }
         }
     }
@@ -145,7 +169,7 @@ class Tokenizer {
     private void handleBlockComments() {
         while (true) {
             if (atEnd()) {
-                Blink.error(line, col, "Unterminated comment.");
+                blink.error(line, col, "Unterminated comment.");
                 return;
             }
 
@@ -185,10 +209,10 @@ class Tokenizer {
             consume();
         }
 
-        String lexeme = source.substring(begin, curr);
-        TokenType type = keywords.get(lexeme);
+        Symbol symbol = identifiers.intern(buffer, begin, curr - begin);
+        TokenType type = keywords.get(symbol.name);
         if (type == null) {
-            addToken(TokenType.ID, lexeme);
+            tokens.addIdentifier(symbol, begin - base, line, col);
         } else {
             addToken(type);
         }
@@ -197,16 +221,17 @@ class Tokenizer {
     private void handleStrings() {
         while (peek() != '"') {
             if (atEnd() || peek() == '\n') {
-                Blink.error(line, col, "Unterminated string.");
+                blink.error(line, col, "Unterminated string.");
                 break;
             }
 
             consume();
         }
 
-        consume();
-        String lexeme = source.substring(begin + 1, curr - 1);
-        addToken(TokenType.STRING, lexeme);
+        if (!atEnd()) {
+            consume();
+        }
+        addToken(TokenType.STRING, new String(buffer, begin + 1, Math.max(curr - begin - 2, 0)));
     }
 
     private void handleNumber() {
@@ -220,31 +245,31 @@ class Tokenizer {
             while (Character.isDigit(peek())) consume();
         }
 
-        double val = Double.parseDouble(source.substring(begin, curr));
-        addToken(TokenType.NUMBER, val);
+        String lexeme = new String(buffer, begin, curr - begin);
+        tokens.add(TokenType.NUMBER, lexeme, Double.parseDouble(lexeme), begin - base, line, col);
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        tokens.add(type, begin - base, curr - begin, line, col);
     }
 
     private void addToken(TokenType type, Object literal) {
-        String lexeme = source.substring(begin, curr);
-        tokens.add(new Token(type, lexeme, literal, line, col));
+        String lexeme = new String(buffer, begin, curr - begin);
+        tokens.add(type, lexeme, literal, begin - base, line, col);
     }
 
     private char peekNext() {
-        if (curr + 1 >= source.length()) return '\0';
-        return source.charAt(curr + 1);
+        if (curr + 1 >= limit) return '\0';
+        return buffer[curr + 1];
     }
 
     private char peek() {
         if (atEnd()) return '\0';
-        return source.charAt(curr);
+        return buffer[curr];
     }
 
     private boolean match(char expected) {
-        if (atEnd() || source.charAt(curr) != expected) {
+        if (atEnd() || buffer[curr] != expected) {
             return false;
         }
 
@@ -256,10 +281,74 @@ class Tokenizer {
     private char consume() {
         curr++;
         col++;
-        return source.charAt(curr - 1);
+        return buffer[curr - 1];
     }
 
     private boolean atEnd() {
-        return curr >= source.length();
+        return curr >= limit;
+    }
+
+    // Finds the Symbols of identifiers straight from the buffer, so each distinct name is only
+    // materialized and looked up in the process-wide table once per source.
+    private static final class Lexemes {
+        private Symbol[] table = new Symbol[256];
+        private int count = 0;
+
+        Symbol intern(char[] chars, int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = table.length - 1;
+            for (int index = hash & mask; ; index = (index + 1) & mask) {
+                Symbol symbol = table[index];
+                if (symbol == null) {
+                    symbol = Symbol.of(new String(chars, start, length));
+                    insert(symbol);
+                    return symbol;
+                }
+                if (symbol.hashCode() == hash && matches(symbol.name, chars, start, length)) {
+                    return symbol;
+                }
+            }
+        }
+
+        void add(String lexeme) {
+            intern(lexeme.toCharArray(), 0, lexeme.length());
+        }
+
+        private static boolean matches(String lexeme, char[] chars, int start, int length) {
+            if (lexeme.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (lexeme.charAt(i) != chars[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(Symbol symbol) {
+            if (++count * 2 > table.length) {
+                Symbol[] old = table;
+                table = new Symbol[old.length * 2];
+                for (Symbol existing : old) {
+                    if (existing != null) {
+                        place(existing);
+                    }
+                }
+            }
+            place(symbol);
+        }
+
+        private void place(Symbol symbol) {
+            int mask = table.length - 1;
+            int index = symbol.hashCode() & mask;
+            while (table[index] != null) {
+                index = (index + 1) & mask;
+            }
+            table[index] = symbol;
+        }
     }
 }
@@ -0,0 +1,14 @@
+package blink;
+
+// Thrown by the unboxed numeric path when an expression didn't produce a number.
+// Carries the value that was actually computed so the caller can finish generically.
+class UnexpectedValue extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    UnexpectedValue(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,13 @@
+package blink;
+
+class Upvalue {
+    // Index of the captured local on the VM stack while it is still open, -1 once closed
+    int slot;
+    Object closed;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
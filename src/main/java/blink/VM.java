@@ -0,0 +1,629 @@
+package blink;
+
+import java.io.*;
+import java.util.*;
+
+import static blink.OpCode.*;
+
+class VM {
+    private static final int FRAMES_MAX = 100_000;
+
+    private static class CallFrame {
+        VMClosure closure;
+        int ip;
+        int base;
+    }
+
+    private final Globals globals = new Globals();
+    // The files this run has imported, by canonical path and as use statements spelled them.
+    private final Set<String> importedPaths = new HashSet<>();
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues;
+    private final Blink blink;
+
+    VM(Blink blink) {
+        this.blink = blink;
+        define(Symbol.of("print"), StandardLibrary.print);
+        define(Symbol.of("println"), StandardLibrary.println);
+    }
+
+    void interpret(VMFunction script) {
+        int baseFrames = frameCount;
+        int baseStack = sp;
+        try {
+            VMClosure closure = new VMClosure(script);
+            ensureStack(sp + 1);
+            stack[sp++] = closure;
+            callClosure(closure, 0, null);
+            run(baseFrames);
+        } catch (RuntimeError error) {
+            closeUpvalues(baseStack);
+            Arrays.fill(stack, baseStack, stack.length, null);
+            sp = baseStack;
+            frameCount = baseFrames;
+            blink.runtimeError(error);
+        }
+    }
+
+    private void run(int exitFrameCount) {
+        CallFrame frame = frames[frameCount - 1];
+        Chunk chunk = frame.closure.function.chunk;
+        byte[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        while (true) {
+            int start = ip;
+            switch (code[ip++]) {
+                case CONSTANT: {
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                }
+                case NULL: stack[sp++] = null; break;
+                case TRUE: stack[sp++] = Boolean.TRUE; break;
+                case FALSE: stack[sp++] = Boolean.FALSE; break;
+                case UNINITIALIZED: stack[sp++] = Interpreter.unitialized; break;
+                case POP: sp--; break;
+                case UNWIND: {
+                    int count = code[ip++] & 0xff;
+                    closeUpvalues(sp - count);
+                    Arrays.fill(stack, sp - count, sp, null);
+                    sp -= count;
+                    break;
+                }
+                case GET_LOCAL: {
+                    Object value = stack[base + (code[ip++] & 0xff)];
+                    if (value == Interpreter.unitialized) {
+                        throw error(chunk, start, "Variable must be initialized before use");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case SET_LOCAL: stack[base + (code[ip++] & 0xff)] = stack[sp - 1]; break;
+                case GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    Object value = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                    if (value == Interpreter.unitialized) {
+                        throw error(chunk, start, "Variable must be initialized before use");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    break;
+                }
+                case GET_GLOBAL: {
+                    GlobalCell cell = global(chunk, ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff), start);
+                    ip += 2;
+                    Object value = cell.value;
+                    if (value == Interpreter.unitialized) {
+                        throw error(chunk, start, "Variable must be initialized before use");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case SET_GLOBAL: {
+                    global(chunk, ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff), start).value = stack[sp - 1];
+                    ip += 2;
+                    break;
+                }
+                case DEFINE_GLOBAL: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    define(name, stack[--sp]);
+                    break;
+                }
+                case LET_GLOBAL: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (globals.get(name) != null) {
+                        throw error(chunk, start, "Variable '" + name + "' already exists.");
+                    }
+                    globals.put(name, new GlobalCell(stack[--sp]));
+                    break;
+                }
+                case GET_PROPERTY: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp - 1] = getProperty(stack[sp - 1], name, chunk, start);
+                    break;
+                }
+                case SET_PROPERTY: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object object = stack[sp - 2];
+                    if (!(object instanceof VMInstance)) {
+                        throw error(chunk, start, "Not an instance of a class.");
+                    }
+                    Object value = stack[--sp];
+                    ((VMInstance) object).fields.put(name, value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case GET_SUPER: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VMClass superclass = (VMClass) stack[--sp];
+                    VMClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(chunk, start, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VMBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left + (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left - (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left * (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case DIVIDE:
+                case MODULO:
+                case POWER:
+                case BIT_AND:
+                case BIT_OR:
+                case BIT_XOR:
+                case EQUAL:
+                case NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], stack[sp - 1], right);
+                    break;
+                }
+                case GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left > (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left >= (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left < (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left <= (double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binaryOperation(chunk.tokens[start], left, right);
+                    }
+                    break;
+                }
+                case NEGATE: {
+                    Object value = stack[sp - 1];
+                    if (value instanceof Double) {
+                        stack[sp - 1] = -(double) value;
+                    } else {
+                        stack[sp - 1] = Interpreter.unaryOperation(chunk.tokens[start], value);
+                    }
+                    break;
+                }
+                case NOT: stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]); break;
+                case TRUTHY: stack[sp - 1] = Interpreter.isTruthy(stack[sp - 1]); break;
+                case BIT_NOT: stack[sp - 1] = Interpreter.unaryOperation(chunk.tokens[start], stack[sp - 1]); break;
+                case JUMP: {
+                    ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    break;
+                }
+                case JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object cond = stack[--sp];
+                    if (!Interpreter.isTruthy(cond)) {
+                        ip += offset;
+                    }
+                    break;
+                }
+                case LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    ip -= offset;
+                    break;
+                }
+                case SWITCH: {
+                    SwitchCases cases = (SwitchCases) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    Object cond = stack[--sp];
+                    ip = cases.target(cond);
+                    break;
+                }
+                case CALL:
+                case INVOKE: {
+                    int argCount;
+                    if (code[start] == CALL) {
+                        argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        this.sp = sp;
+                        callValue(stack[sp - argCount - 1], argCount, chunk.tokens[start]);
+                    } else {
+                        Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        this.sp = sp;
+                        invoke(name, argCount, chunk, start);
+                    }
+                    frame = frames[frameCount - 1];
+                    chunk = frame.closure.function.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    sp = this.sp;
+                    break;
+                }
+                case CLOSURE: {
+                    VMFunction function = (VMFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VMClosure closure = new VMClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case RETURN: {
+                    Object result = stack[sp - 1];
+                    closeUpvalues(base);
+                    Arrays.fill(stack, base, sp, null);
+                    frameCount--;
+                    if (frameCount == exitFrameCount) {
+                        this.sp = base;
+                        return;
+                    }
+                    sp = base;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    chunk = frame.closure.function.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case CLASS: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new VMClass(name.name);
+                    break;
+                }
+                case INHERIT: {
+                    Object superclass = stack[sp - 2];
+                    if (!(superclass instanceof VMClass)) {
+                        throw error(chunk, start, "Superclass must be a class.");
+                    }
+                    VMClass subclass = (VMClass) stack[--sp];
+                    // Methods are inherited, but as in the interpreter a class is only constructed
+                    // through its own init.
+                    subclass.methods.putAll(((VMClass) superclass).methods);
+                    break;
+                }
+                case METHOD: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VMClosure method = (VMClosure) stack[--sp];
+                    VMClass _class = (VMClass) stack[sp - 1];
+                    _class.methods.put(name, method);
+                    if (name == Symbol.INIT) {
+                        _class.initializer = method;
+                    }
+                    break;
+                }
+                case ARRAY: {
+                    int size = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    List<Object> values = new BlinkArray(size);
+                    for (int i = sp - size; i < sp; i++) {
+                        values.add(Rope.flatten(stack[i]));
+                        stack[i] = null;
+                    }
+                    sp -= size;
+                    stack[sp++] = values;
+                    break;
+                }
+                case SUBSCRIPT: {
+                    Object index = stack[--sp];
+                    stack[sp - 1] = subscript(stack[sp - 1], index, chunk, start);
+                    break;
+                }
+                case USE: {
+                    Object module = stack[--sp];
+                    frame.ip = ip;
+                    this.sp = sp;
+                    use(module, chunk.tokens[start]);
+                    stack = this.stack;
+                    sp = this.sp;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[start]);
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount, Token paren) {
+        if (callee instanceof VMClosure) {
+            callClosure((VMClosure) callee, argCount, paren);
+        } else if (callee instanceof VMBoundMethod) {
+            VMBoundMethod bound = (VMBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            callClosure(bound.method, argCount, paren);
+        } else if (callee instanceof VMClass) {
+            VMClass _class = (VMClass) callee;
+            stack[sp - argCount - 1] = new VMInstance(_class);
+            if (_class.initializer != null) {
+                callClosure(_class.initializer, argCount, paren);
+            } else if (argCount != 0) {
+                throw new RuntimeError(paren, "Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof BlinkCallable) {
+            BlinkCallable function = (BlinkCallable) callee;
+            if (argCount != function.arity()) {
+                throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got "
+                        + argCount + ".");
+            }
+            Object[] args = new Object[argCount];
+            for (int i = 0; i < argCount; i++) {
+                args[i] = Rope.flatten(stack[sp - argCount + i]);
+            }
+            // Natives never reach back into the tree-walker, so there is no interpreter to hand them
+            Object result = function.call(null, args);
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            stack[sp++] = result;
+        } else {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+    }
+
+    private void invoke(Symbol name, int argCount, Chunk chunk, int start) {
+        Object receiver = stack[sp - argCount - 1];
+        Token paren = chunk.tokens[start + 3];
+        if (receiver instanceof VMInstance) {
+            VMInstance instance = (VMInstance) receiver;
+            Object field = instance.fields.get(name);
+            if (field != null || instance.fields.containsKey(name)) {
+                stack[sp - argCount - 1] = field;
+                callValue(field, argCount, paren);
+                return;
+            }
+            VMClosure method = instance._class.methods.get(name);
+            if (method == null) {
+                throw error(chunk, start, "Undefined property '" + name + "'.");
+            }
+            callClosure(method, argCount, paren);
+        } else if (receiver instanceof NativeInstance) {
+            Object method = ((NativeInstance) receiver).findMethod(name);
+            stack[sp - argCount - 1] = method;
+            callValue(method, argCount, paren);
+        } else {
+            throw error(chunk, start, "Not an instance of a class.");
+        }
+    }
+
+    private void callClosure(VMClosure closure, int argCount, Token paren) {
+        VMFunction function = closure.function;
+        if (argCount != function.arity) {
+            throw new RuntimeError(paren, "Expected " + function.arity + " arguments but got " + argCount + ".");
+        }
+        if (frameCount == frames.length) {
+            if (frameCount == FRAMES_MAX) {
+                throw new RuntimeError(paren, "Stack overflow.");
+            }
+            frames = Arrays.copyOf(frames, Math.min(frameCount * 2, FRAMES_MAX));
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = frames[frameCount] = new CallFrame();
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        ensureStack(frame.base + function.maxStack);
+    }
+
+    private Object getProperty(Object object, Symbol name, Chunk chunk, int start) {
+        if (object instanceof VMInstance) {
+            VMInstance instance = (VMInstance) object;
+            Object value = instance.fields.get(name);
+            if (value != null || instance.fields.containsKey(name)) {
+                return value;
+            }
+            VMClosure method = instance._class.methods.get(name);
+            if (method != null) {
+                return new VMBoundMethod(instance, method);
+            }
+            throw error(chunk, start, "Undefined property '" + name + "'.");
+        }
+
+        if (object instanceof NativeInstance) {
+            return ((NativeInstance) object).findMethod(name);
+        }
+
+        throw error(chunk, start, "Not an instance of a class.");
+    }
+
+    private Object subscript(Object object, Object indexObject, Chunk chunk, int start) {
+        if (!(object instanceof List)) {
+            throw error(chunk, start, "Only arrays can be subscripted");
+        }
+        if (!(indexObject instanceof Double)) {
+            throw error(chunk, start, "Only numbers can be used to index an array.");
+        }
+
+        List<?> list = (List<?>) object;
+        int index = ((Double) indexObject).intValue();
+        if (index >= list.size()) {
+            throw error(chunk, start, "Array index out of range.");
+        }
+        return list.get(index);
+    }
+
+    private void use(Object module, Token keyword) {
+        module = Rope.flatten(module);
+        if (!(module instanceof String)) {
+            throw new RuntimeError(keyword, "Module name must be a string.");
+        }
+
+        String moduleName = (String) module;
+        if (moduleName.startsWith("std")) {
+            String library = moduleName.split("::")[1];
+            if (library.equals("*")) {
+                for (Map.Entry<String, NativeInstance> entry : StandardLibrary.libraries.entrySet()) {
+                    define(Symbol.of(entry.getKey()), entry.getValue());
+                }
+                return;
+            }
+            NativeInstance instance = StandardLibrary.libraries.get(library);
+            if (instance == null) {
+                throw new RuntimeError(keyword, "'" + moduleName + "' is not a standard library");
+            }
+            define(Symbol.of(library), instance);
+            return;
+        }
+
+        if (importedPaths.contains(moduleName)) {
+            return;
+        }
+        File file = ModuleCache.canonical(keyword, moduleName);
+        if (importedPaths.contains(file.getPath())) {
+            importedPaths.add(moduleName);
+            return;
+        }
+        Module imported = ModuleCache.get(blink, keyword, moduleName, file);
+        if (imported == null) {
+            return;
+        }
+        importedPaths.add(file.getPath());
+        importedPaths.add(moduleName);
+        VMFunction script = imported.script;
+        if (script == null) {
+            int errors = blink.errorCount();
+            script = new Compiler(blink).compile(imported.statements);
+            if (blink.errorCount() != errors) {
+                return;
+            }
+            imported.script = script;
+        }
+        interpret(script);
+    }
+
+    // Finds the cell of the global named by a constant.
+    private GlobalCell global(Chunk chunk, int constant, int start) {
+        Symbol name = (Symbol) chunk.constants[constant];
+        GlobalCell cell = globals.get(name);
+        if (cell == null) {
+            throw error(chunk, start, "Undefined variable '" + name + "'.");
+        }
+        return cell;
+    }
+
+    private void define(Symbol name, Object value) {
+        GlobalCell cell = globals.get(name);
+        if (cell != null) {
+            cell.value = value;
+        } else {
+            globals.put(name, new GlobalCell(value));
+        }
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void ensureStack(int size) {
+        if (size >= stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + 1));
+        }
+    }
+
+    private static RuntimeError error(Chunk chunk, int start, String message) {
+        return new RuntimeError(chunk.tokens[start], message);
+    }
+}
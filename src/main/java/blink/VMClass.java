@@ -0,0 +1,22 @@
+package blink;
+
+import java.util.*;
+
+class VMClass {
+    final String name;
+    final Map<Symbol, VMClosure> methods = new HashMap<>();
+    VMClosure initializer;
+
+    VMClass(String name) {
+        this.name = name;
+    }
+
+    int arity() {
+        return initializer == null ? 0 : initializer.function.arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<class " + name + ">";
+    }
+}
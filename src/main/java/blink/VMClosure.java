@@ -0,0 +1,17 @@
+package blink;
+
+class VMClosure {
+    final VMFunction function;
+    final Upvalue[] upvalues;
+
+    VMClosure(VMFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        // Mirrors BlinkFunction, which prints its kind rather than its name
+        return function.type == FunctionType.LAMBDA ? FunctionType.LAMBDA.toString() : FunctionType.FUNCTION.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package blink;
+
+class VMFunction {
+    final String name;
+    final FunctionType type;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    int maxStack = 0;
+
+    VMFunction(String name, FunctionType type, int arity) {
+        this.name = name;
+        this.type = type;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        return type == FunctionType.NONE ? "<script>" : name;
+    }
+}
@@ -0,0 +1,17 @@
+package blink;
+
+import java.util.*;
+
+class VMInstance {
+    final VMClass _class;
+    final Map<Symbol, Object> fields = new HashMap<>();
+
+    VMInstance(VMClass _class) {
+        this._class = _class;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + _class.name + " instance>";
+    }
+}
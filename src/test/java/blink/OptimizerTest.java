@@ -0,0 +1,90 @@
+package blink;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+// Runs each program in resources/optimizer with the Optimizer on and off, on the interpreter and
+// on the VM, and checks that it prints the same output and reports the same errors either way.
+public class OptimizerTest {
+    private static final String[] PROGRAMS = {
+            "folding", "dead", "dead_errors", "runtime_errors", "type_errors", "closures"
+    };
+
+    @Test
+    public void interpreterBehavesTheSameOptimized() throws IOException {
+        for (String program : PROGRAMS) {
+            String source = read(program);
+            assertEquals(program, run(source, false, false), run(source, true, false));
+        }
+    }
+
+    @Test
+    public void vmBehavesTheSameOptimized() throws IOException {
+        for (String program : PROGRAMS) {
+            String source = read(program);
+            assertEquals(program, run(source, false, true), run(source, true, true));
+        }
+    }
+
+    @Test
+    public void errorsInPrunedCodeAreReported() throws IOException {
+        String output = run(read("dead_errors"), true, false);
+        assertTrue(output, output.contains("Cannot return form top-level scope."));
+        assertTrue(output, output.contains("Continue can only used be inside loops."));
+        assertTrue(output, output.contains("Variable with this name already declared in scope."));
+    }
+
+    // Runs the front end and then the program, if it had no errors, and returns everything it
+    // printed, errors included.
+    private static String run(String source, boolean optimize, boolean useVM) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(output, true, StandardCharsets.UTF_8);
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(capture);
+        System.setErr(capture);
+        try {
+            Blink blink = new Blink(useVM);
+            Tokenizer tokenizer = new Tokenizer(blink, source);
+            tokenizer.scanTokens();
+            List<Stmt> statements = new Parser(blink, tokenizer.getTokens()).parse();
+
+            Map<Object, List<Object>> pruned = Collections.emptyMap();
+            if (optimize) {
+                Optimizer optimizer = new Optimizer();
+                statements = optimizer.optimize(statements);
+                pruned = optimizer.pruned();
+            }
+            Resolution resolution = new Resolution();
+            new Resolver(blink, resolution, pruned).resolve(statements);
+
+            if (blink.errorCount() == 0) {
+                if (useVM) {
+                    new VM(blink).interpret(new Compiler(blink).compile(statements));
+                } else {
+                    Interpreter interpreter = new Interpreter(blink);
+                    interpreter.adopt(resolution);
+                    interpreter.interpret(statements);
+                }
+            }
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String read(String program) throws IOException {
+        try (InputStream in = OptimizerTest.class.getResourceAsStream("/optimizer/" + program + ".blink")) {
+            if (in == null) {
+                throw new FileNotFoundException("optimizer/" + program + ".blink");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}